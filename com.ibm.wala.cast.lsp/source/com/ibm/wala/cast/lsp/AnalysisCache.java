@@ -0,0 +1,459 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.eclipse.lsp4j.CodeLens;
+import org.eclipse.lsp4j.Command;
+import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.DiagnosticSeverity;
+import org.eclipse.lsp4j.Location;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.SymbolInformation;
+import org.eclipse.lsp4j.SymbolKind;
+
+import com.ibm.wala.cast.tree.impl.AbstractSourcePosition;
+
+/**
+ * A directory of the results of analyses for single documents, so that a
+ * restarted server can answer requests about a document before its first
+ * analysis is done.  An entry is keyed by the content digest of its
+ * document and by the analysis configuration, so an entry is only found
+ * for exactly the text and settings it was computed from.
+ *
+ * Each entry is one file in a compact binary format, which is memory
+ * mapped and decoded when it is first needed; decoded entries are kept in
+ * a small LRU cache.  A file ends with a CRC32 of everything before it,
+ * so a file that was truncated or damaged is ignored rather than misread.
+ */
+public class AnalysisCache {
+	private static final int MAGIC = 0x57414c41;
+	private static final int VERSION = 2;
+
+	/**
+	 * The results for one document.
+	 */
+	public static class Entry {
+		private final List<SymbolInformation> symbols;
+		private final List<Diagnostic> diagnostics;
+		private final List<CodeLens> codeLenses;
+		private final List<Range> hoverRanges;
+		private final List<String> hoverTexts;
+		private final List<Boolean> hoverMarkdown;
+		private volatile PositionIndex<String> plainHovers;
+		private volatile PositionIndex<String> markdownHovers;
+
+		public Entry(List<SymbolInformation> symbols, List<Diagnostic> diagnostics, List<CodeLens> codeLenses) {
+			this(symbols, diagnostics, codeLenses, new LinkedList<>(), new LinkedList<>(), new LinkedList<>());
+		}
+
+		private Entry(List<SymbolInformation> symbols, List<Diagnostic> diagnostics, List<CodeLens> codeLenses,
+				List<Range> hoverRanges, List<String> hoverTexts, List<Boolean> hoverMarkdown) {
+			this.symbols = symbols;
+			this.diagnostics = diagnostics;
+			this.codeLenses = codeLenses;
+			this.hoverRanges = hoverRanges;
+			this.hoverTexts = hoverTexts;
+			this.hoverMarkdown = hoverMarkdown;
+		}
+
+		/**
+		 * record the hover text of a range; only to be called before the
+		 * entry is stored
+		 */
+		public void addHover(Range range, boolean useMarkdown, String text) {
+			hoverRanges.add(range);
+			hoverMarkdown.add(useMarkdown);
+			hoverTexts.add(text);
+		}
+
+		/**
+		 * @return a copy of this entry with the hovers of both this entry
+		 *   and other; where both have a hover for a range, other's is kept
+		 */
+		public Entry withHovers(Entry other) {
+			Entry result = new Entry(symbols, diagnostics, codeLenses);
+			for(Entry e : new Entry[] { this, other }) {
+				for(int i = 0; i < e.hoverRanges.size(); i++) {
+					result.addHover(e.hoverRanges.get(i), e.hoverMarkdown.get(i), e.hoverTexts.get(i));
+				}
+			}
+			return result;
+		}
+
+		public List<SymbolInformation> getSymbols() {
+			return Collections.unmodifiableList(symbols);
+		}
+
+		public List<Diagnostic> getDiagnostics() {
+			return Collections.unmodifiableList(diagnostics);
+		}
+
+		public List<CodeLens> getCodeLenses() {
+			return Collections.unmodifiableList(codeLenses);
+		}
+
+		/**
+		 * @return the hover text of the innermost recorded range around pos
+		 */
+		public String hover(URL document, org.eclipse.lsp4j.Position pos, boolean useMarkdown) {
+			PositionIndex<String> index = useMarkdown? markdownHovers: plainHovers;
+			if (index == null) {
+				PositionIndex.Builder<String> builder = new PositionIndex.Builder<>();
+				for(int i = 0; i < hoverRanges.size(); i++) {
+					if (hoverMarkdown.get(i) == useMarkdown) {
+						builder.put(position(document, hoverRanges.get(i)), hoverTexts.get(i));
+					}
+				}
+				index = builder.build();
+				if (useMarkdown) {
+					markdownHovers = index;
+				} else {
+					plainHovers = index;
+				}
+			}
+			return index.nearestValue(position(document, new Range(pos, pos)));
+		}
+	}
+
+	private static AbstractSourcePosition position(URL document, Range range) {
+		return new AbstractSourcePosition() {
+			@Override
+			public int getFirstLine() {
+				return range.getStart().getLine() + 1;
+			}
+
+			@Override
+			public int getLastLine() {
+				return range.getEnd().getLine() + 1;
+			}
+
+			@Override
+			public int getFirstCol() {
+				return range.getStart().getCharacter();
+			}
+
+			@Override
+			public int getLastCol() {
+				return range.getEnd().getCharacter();
+			}
+
+			@Override
+			public int getFirstOffset() {
+				return -1;
+			}
+
+			@Override
+			public int getLastOffset() {
+				return -1;
+			}
+
+			@Override
+			public URL getURL() {
+				return document;
+			}
+
+			@Override
+			public Reader getReader() throws IOException {
+				return null;
+			}
+		};
+	}
+
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+	public static final long DEFAULT_MAX_AGE_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+	private final File directory;
+	private final long maxBytes;
+	private final long maxAgeMillis;
+	private final LRUCache<String, Entry> loaded = new LRUCache<>(64);
+
+	public AnalysisCache(File directory) {
+		this(directory, DEFAULT_MAX_BYTES, DEFAULT_MAX_AGE_MILLIS);
+	}
+
+	/**
+	 * @param maxBytes how large the entries may grow in all, before the
+	 *   least recently used ones are pruned
+	 * @param maxAgeMillis how long an entry is kept without being used
+	 */
+	public AnalysisCache(File directory, long maxBytes, long maxAgeMillis) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	/**
+	 * @return the key of the entry for a document with the given content
+	 *   digest, analyzed with the given configuration
+	 */
+	public static String key(String digest, String configuration) {
+		return ModuleDigest.of(ByteBuffer.wrap((digest + "\n" + configuration).getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private File file(String key) {
+		return new File(directory, key + ".bin");
+	}
+
+	/**
+	 * @return whether there is an entry stored under key
+	 */
+	public boolean contains(String key) {
+		return loaded.get(key) != null || file(key).isFile();
+	}
+
+	/**
+	 * delete the entries that have not been used for longer than the
+	 * maximum age, and then the least recently used ones until the rest fit
+	 * into the maximum size, along with temporary files left behind by
+	 * writes that did not finish
+	 */
+	public void prune() {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		List<File> entries = new LinkedList<>();
+		long total = 0;
+		for(File f : files) {
+			long age = now - f.lastModified();
+			if (f.getName().endsWith(".tmp") && age > 60 * 60 * 1000) {
+				f.delete();
+			} else if (f.getName().endsWith(".bin")) {
+				if (age > maxAgeMillis) {
+					f.delete();
+				} else {
+					entries.add(f);
+					total += f.length();
+				}
+			}
+		}
+		entries.sort((a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+		for(File f : entries) {
+			if (total <= maxBytes) {
+				break;
+			}
+			total -= f.length();
+			f.delete();
+		}
+	}
+
+	/**
+	 * @return the entry stored under key, or null if there is none or it
+	 *   cannot be read
+	 */
+	public Entry load(String key) {
+		Entry entry = loaded.get(key);
+		if (entry == null) {
+			File f = file(key);
+			if (! f.isFile()) {
+				return null;
+			}
+			try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+				entry = read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			} catch (IOException | RuntimeException e) {
+				System.err.println("cannot read analysis cache entry " + f + ": " + e);
+				return null;
+			}
+			if (entry != null) {
+				// the modification time tells prune which entries are still used
+				f.setLastModified(System.currentTimeMillis());
+				loaded.put(key, entry);
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * store an entry; it is written to a temporary file first, so readers
+	 * never see a partial entry
+	 */
+	public void store(String key, Entry entry) {
+		try {
+			Files.createDirectories(directory.toPath());
+			File tmp = File.createTempFile(key, ".tmp", directory);
+			CRC32 crc = new CRC32();
+			try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)), crc))) {
+				write(out, entry);
+				out.writeLong(crc.getValue());
+			}
+			Files.move(tmp.toPath(), file(key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			loaded.put(key, entry);
+		} catch (IOException e) {
+			System.err.println("cannot write analysis cache entry " + key + ": " + e);
+		}
+	}
+
+	private static void write(DataOutputStream out, Entry entry) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+
+		out.writeInt(entry.symbols.size());
+		for(SymbolInformation s : entry.symbols) {
+			writeString(out, s.getName());
+			out.writeInt(s.getKind().getValue());
+			writeString(out, s.getLocation().getUri());
+			writeRange(out, s.getLocation().getRange());
+			writeString(out, s.getContainerName());
+		}
+
+		out.writeInt(entry.diagnostics.size());
+		for(Diagnostic d : entry.diagnostics) {
+			writeRange(out, d.getRange());
+			out.writeInt(d.getSeverity() == null? 0: d.getSeverity().getValue());
+			writeString(out, d.getSource());
+			writeString(out, d.getMessage());
+		}
+
+		out.writeInt(entry.codeLenses.size());
+		for(CodeLens cl : entry.codeLenses) {
+			writeRange(out, cl.getRange());
+			writeString(out, cl.getCommand().getTitle());
+			writeString(out, cl.getCommand().getCommand());
+			List<Object> args = cl.getCommand().getArguments();
+			writeString(out, args == null || args.isEmpty()? null: String.valueOf(args.get(0)));
+		}
+
+		out.writeInt(entry.hoverRanges.size());
+		for(int i = 0; i < entry.hoverRanges.size(); i++) {
+			writeRange(out, entry.hoverRanges.get(i));
+			out.writeBoolean(entry.hoverMarkdown.get(i));
+			writeString(out, entry.hoverTexts.get(i));
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static void writeRange(DataOutputStream out, Range r) throws IOException {
+		out.writeInt(r.getStart().getLine());
+		out.writeInt(r.getStart().getCharacter());
+		out.writeInt(r.getEnd().getLine());
+		out.writeInt(r.getEnd().getCharacter());
+	}
+
+	/**
+	 * @return whether the checksum at the end of in matches the rest of it
+	 */
+	private static boolean isIntact(ByteBuffer in) {
+		if (in.remaining() < 16) {
+			return false;
+		}
+		int end = in.limit() - 8;
+		ByteBuffer contents = in.duplicate();
+		// go through Buffer so the call links on Java 8 as well as later releases
+		((Buffer) contents).limit(end);
+		CRC32 crc = new CRC32();
+		byte[] chunk = new byte[8192];
+		while (contents.hasRemaining()) {
+			int n = Math.min(chunk.length, contents.remaining());
+			contents.get(chunk, 0, n);
+			crc.update(chunk, 0, n);
+		}
+		return crc.getValue() == in.getLong(end);
+	}
+
+	private static Entry read(ByteBuffer in) {
+		if (! isIntact(in)) {
+			return null;
+		}
+		((Buffer) in).limit(in.limit() - 8);
+		if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+			return null;
+		}
+
+		List<SymbolInformation> symbols = new LinkedList<>();
+		for(int i = in.getInt(); i > 0; i--) {
+			SymbolInformation s = new SymbolInformation();
+			s.setName(readString(in));
+			s.setKind(SymbolKind.forValue(in.getInt()));
+			String uri = readString(in);
+			s.setLocation(new Location(uri, readRange(in)));
+			s.setContainerName(readString(in));
+			symbols.add(s);
+		}
+
+		List<Diagnostic> diagnostics = new LinkedList<>();
+		for(int i = in.getInt(); i > 0; i--) {
+			Diagnostic d = new Diagnostic();
+			d.setRange(readRange(in));
+			int severity = in.getInt();
+			d.setSeverity(severity == 0? null: DiagnosticSeverity.forValue(severity));
+			d.setSource(readString(in));
+			d.setMessage(readString(in));
+			diagnostics.add(d);
+		}
+
+		List<CodeLens> codeLenses = new LinkedList<>();
+		for(int i = in.getInt(); i > 0; i--) {
+			Range range = readRange(in);
+			Command cmd = new Command(readString(in), readString(in));
+			String arg = readString(in);
+			if (arg != null) {
+				cmd.setArguments(Collections.singletonList(arg));
+			}
+			codeLenses.add(new CodeLens(range, cmd, null));
+		}
+
+		Entry entry = new Entry(symbols, diagnostics, codeLenses);
+		for(int i = in.getInt(); i > 0; i--) {
+			Range range = readRange(in);
+			boolean useMarkdown = in.get() != 0;
+			entry.addHover(range, useMarkdown, readString(in));
+		}
+		return in.hasRemaining()? null: entry;
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = in.getInt();
+		if (length == -1) {
+			return null;
+		} else if (length < -1 || length > in.remaining()) {
+			throw new IllegalArgumentException("bad string length " + length);
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static Range readRange(ByteBuffer in) {
+		org.eclipse.lsp4j.Position start = new org.eclipse.lsp4j.Position(in.getInt(), in.getInt());
+		org.eclipse.lsp4j.Position end = new org.eclipse.lsp4j.Position(in.getInt(), in.getInt());
+		return new Range(start, end);
+	}
+}
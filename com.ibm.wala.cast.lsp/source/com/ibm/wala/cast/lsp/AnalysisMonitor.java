@@ -0,0 +1,80 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import java.util.Collections;
+import java.util.Map;
+
+import com.ibm.wala.util.MonitorUtil.IProgressMonitor;
+
+/**
+ * Progress monitor for one analysis run of a language.  It records the
+ * content digests of the sources the run started from, so the server can
+ * tell when the run has been overtaken by edits; the server then cancels
+ * it, and WALA notices at its next check and stops with a CancelException.
+ * Edits that leave a source as it was do not count.
+ */
+public class AnalysisMonitor implements IProgressMonitor {
+	private final String language;
+	private final Map<String, String> digests;
+	private volatile boolean canceled = false;
+
+	public AnalysisMonitor(String language, Map<String, String> digests) {
+		this.language = language;
+		this.digests = Collections.unmodifiableMap(digests);
+	}
+
+	public String getLanguage() {
+		return language;
+	}
+
+	/**
+	 * @return the content digest of each source at the start of this run
+	 */
+	public Map<String, String> getDigests() {
+		return digests;
+	}
+
+	@Override
+	public void beginTask(String task, int totalWork) {
+
+	}
+
+	@Override
+	public void subTask(String subTask) {
+
+	}
+
+	@Override
+	public void cancel() {
+		canceled = true;
+	}
+
+	@Override
+	public boolean isCanceled() {
+		return canceled;
+	}
+
+	@Override
+	public void done() {
+
+	}
+
+	@Override
+	public void worked(int units) {
+
+	}
+
+	@Override
+	public String getCancelMessage() {
+		return "sources of " + language + " changed during analysis";
+	}
+}
@@ -0,0 +1,136 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.ibm.wala.util.collections.HashMapFactory;
+
+/**
+ * Runs analyses of a language off the JSON-RPC message thread.  Triggers
+ * are debounced: each one restarts a short timer for its language, and only
+ * when the timer expires does the analysis run, so a burst of triggers (a
+ * save, or opening many files at once) results in a single run.  Triggers
+ * that arrive while an analysis is running are merged into one follow-up
+ * run.
+ *
+ * Each language has its own lane, a worker thread that runs only the
+ * analyses of that language, so languages are analyzed in parallel and a
+ * long analysis of one never delays another.
+ */
+public class AnalysisScheduler {
+	public static final long DEFAULT_DELAY_MILLIS = 250;
+
+	private static class Lane {
+		private final ExecutorService worker;
+		// whether a run is waiting in the queue of the worker
+		private boolean queued = false;
+
+		private Lane(String language) {
+			worker = Executors.newSingleThreadExecutor((r) -> {
+				Thread t = new Thread(r, "WALA analysis of " + language);
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	/**
+	 * A trigger waiting for its timer.  It exists before the timer is set,
+	 * so the timer task can always tell whether it is still the latest.
+	 */
+	private static class Request {
+		private ScheduledFuture<?> timer;
+	}
+
+	private final Consumer<String> analysis;
+	private final ScheduledExecutorService timer;
+	private final Map<String, Request> pending = HashMapFactory.make();
+	private final Map<String, Lane> lanes = HashMapFactory.make();
+	private volatile long delayMillis = DEFAULT_DELAY_MILLIS;
+
+	public AnalysisScheduler(Consumer<String> analysis) {
+		this.analysis = analysis;
+		ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, (r) -> {
+			Thread t = new Thread(r, "WALA analysis timer");
+			t.setDaemon(true);
+			return t;
+		});
+		timer.setRemoveOnCancelPolicy(true);
+		this.timer = timer;
+	}
+
+	public void setDelay(long millis) {
+		this.delayMillis = millis;
+	}
+
+	public long getDelay() {
+		return delayMillis;
+	}
+
+	/**
+	 * request an analysis of the given language; the request is merged with
+	 * any other request for that language that has not started yet
+	 */
+	public synchronized void schedule(String language) {
+		Request request = new Request();
+		Request old = pending.put(language, request);
+		if (old != null && old.timer != null) {
+			old.timer.cancel(false);
+		}
+		request.timer = timer.schedule(() -> enqueue(language, request), delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized void enqueue(String language, Request request) {
+		// a newer request restarted the timer after this one already fired
+		if (! pending.remove(language, request)) {
+			return;
+		}
+
+		Lane lane = lanes.get(language);
+		if (lane == null) {
+			lane = new Lane(language);
+			lanes.put(language, lane);
+		}
+		if (! lane.queued) {
+			lane.queued = true;
+			Lane l = lane;
+			lane.worker.execute(() -> run(language, l));
+		}
+	}
+
+	private void run(String language, Lane lane) {
+		synchronized (this) {
+			// triggers from now on need another run, since this one may miss them
+			lane.queued = false;
+		}
+		try {
+			analysis.accept(language);
+		} catch (RuntimeException e) {
+			System.err.println("analysis of " + language + " failed: " + e);
+			e.printStackTrace();
+		}
+	}
+
+	public synchronized void shutdown() {
+		timer.shutdownNow();
+		for(Lane lane : lanes.values()) {
+			lane.worker.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,225 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.eclipse.lsp4j.CodeLens;
+import org.eclipse.lsp4j.Diagnostic;
+
+import com.ibm.wala.cast.tree.CAstSourcePositionMap.Position;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.util.collections.HashMapFactory;
+import com.ibm.wala.util.collections.Pair;
+
+/**
+ * The complete result of one analysis run of one language.  A snapshot is
+ * built privately by the analysis thread and never modified once it has
+ * been published, so query handlers can read it from any thread without
+ * locking, and keep using it while the next snapshot is being built.
+ */
+class AnalysisSnapshot {
+	private static final AtomicLong ids = new AtomicLong();
+
+	private final long id = ids.incrementAndGet();
+	private final String language;
+	private final CallGraph callGraph;
+	private final Map<URL, PositionIndex<PointerKey>> values;
+	private final Map<URL, PositionIndex<int[]>> instructions;
+	private final Map<String, Map<String, WalaSymbolInformation>> documentSymbols;
+	private final Set<Pair<String, BiFunction<Boolean, PointerKey,String>>> valueAnalyses;
+	private final Set<Pair<String, BiFunction<Boolean, int[],String>>> instructionAnalyses;
+	private final Function<int[],Set<Position>> findDefinitionAnalysis;
+	private final Map<URL, Rope> texts;
+	private final BatchSlicer slicer;
+	private final CallIndex calls;
+	private final SymbolIndex symbols;
+	private final Map<String, List<CodeLens>> codeLenses;
+	private final List<AnalysisError> errors;
+	private final TypeSummaries types = new TypeSummaries();
+	private final Map<String, String> digests;
+	private final long configuration;
+	private volatile boolean relatedInformation = false;
+	private final Map<String, List<Diagnostic>> diagnostics;
+
+	AnalysisSnapshot(
+			String language,
+			CallGraph callGraph,
+			Map<URL, PositionIndex<PointerKey>> values,
+			Map<URL, PositionIndex<int[]>> instructions,
+			Map<String, Map<String, WalaSymbolInformation>> documentSymbols,
+			Set<Pair<String, BiFunction<Boolean, PointerKey, String>>> valueAnalyses,
+			Set<Pair<String, BiFunction<Boolean, int[], String>>> instructionAnalyses,
+			Function<int[], Set<Position>> findDefinitionAnalysis,
+			Map<URL, Rope> texts,
+			BatchSlicer slicer,
+			CallIndex calls,
+			SymbolIndex symbols,
+			Function<AnalysisSnapshot, Map<String, List<CodeLens>>> codeLenses,
+			List<AnalysisError> errors,
+			Map<String, List<Diagnostic>> diagnostics,
+			Map<String, String> digests,
+			long configuration) {
+		this.language = language;
+		this.callGraph = callGraph;
+		this.values = values;
+		this.instructions = instructions;
+		Map<String, Map<String, WalaSymbolInformation>> byDocument = HashMapFactory.make();
+		documentSymbols.forEach((document, s) -> byDocument.put(document, Collections.unmodifiableMap(s)));
+		this.documentSymbols = Collections.unmodifiableMap(byDocument);
+		this.valueAnalyses = Collections.unmodifiableSet(valueAnalyses);
+		this.instructionAnalyses = Collections.unmodifiableSet(instructionAnalyses);
+		this.findDefinitionAnalysis = findDefinitionAnalysis;
+		this.texts = Collections.unmodifiableMap(texts);
+		this.slicer = slicer;
+		this.calls = calls;
+		this.symbols = symbols;
+		this.errors = Collections.unmodifiableList(errors);
+		this.diagnostics = Collections.unmodifiableMap(diagnostics);
+		this.digests = digests;
+		this.configuration = configuration;
+		// last, since finding the lenses with a type queries the rest of this snapshot
+		this.codeLenses = Collections.unmodifiableMap(codeLenses.apply(this));
+	}
+
+	/**
+	 * @return a number that identifies this snapshot, for caches that must
+	 *   not keep the snapshot itself alive
+	 */
+	long getId() {
+		return id;
+	}
+
+	String getLanguage() {
+		return language;
+	}
+
+	CallGraph getCallGraph() {
+		return callGraph;
+	}
+
+	Map<URL, PositionIndex<PointerKey>> getValues() {
+		return values;
+	}
+
+	Map<URL, PositionIndex<int[]>> getInstructions() {
+		return instructions;
+	}
+
+	Map<String, Map<String, WalaSymbolInformation>> getDocumentSymbols() {
+		return documentSymbols;
+	}
+
+	Set<Pair<String, BiFunction<Boolean, PointerKey, String>>> getValueAnalyses() {
+		return valueAnalyses;
+	}
+
+	Set<Pair<String, BiFunction<Boolean, int[], String>>> getInstructionAnalyses() {
+		return instructionAnalyses;
+	}
+
+	Function<int[], Set<Position>> getFindDefinitionAnalysis() {
+		return findDefinitionAnalysis;
+	}
+
+	/**
+	 * @return the text of each in-memory source, as this run analyzed it
+	 */
+	Map<URL, Rope> getTexts() {
+		return texts;
+	}
+
+	/**
+	 * @return the slicer over the SDG of this run, shared by all its queries
+	 */
+	BatchSlicer getSlicer() {
+		return slicer;
+	}
+
+	/**
+	 * @return the call edges of the call graph of this run, by node number
+	 */
+	CallIndex getCalls() {
+		return calls;
+	}
+
+	/**
+	 * @return the function symbols of this run, indexed by name and start
+	 */
+	SymbolIndex getSymbols() {
+		return symbols;
+	}
+
+	/**
+	 * @return the unresolved code lenses of each document, only where the
+	 *   type summaries of this snapshot found a type
+	 */
+	Map<String, List<CodeLens>> getCodeLenses() {
+		return codeLenses;
+	}
+
+	/**
+	 * @return the type summaries of the functions of this run; they are
+	 *   filled in as they are first needed, and never change after that
+	 */
+	TypeSummaries getTypes() {
+		return types;
+	}
+
+	/**
+	 * @return the errors the analyses of this run reported
+	 */
+	List<AnalysisError> getErrors() {
+		return errors;
+	}
+
+	/**
+	 * @return the diagnostics of this run, by document, without the related
+	 *   information that is added to them in the background
+	 */
+	Map<String, List<Diagnostic>> getDiagnostics() {
+		return diagnostics;
+	}
+
+	/**
+	 * @return the content digest of each module this run analyzed, by name
+	 */
+	Map<String, String> getDigests() {
+		return digests;
+	}
+
+	/**
+	 * @return the generation of the server configuration this run used
+	 */
+	long getConfiguration() {
+		return configuration;
+	}
+
+	/**
+	 * @return whether the diagnostics of this run have been published with
+	 *   their related information
+	 */
+	boolean hasRelatedInformation() {
+		return relatedInformation;
+	}
+
+	void setRelatedInformation() {
+		relatedInformation = true;
+	}
+}
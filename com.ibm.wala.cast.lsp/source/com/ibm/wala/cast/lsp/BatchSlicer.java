@@ -0,0 +1,385 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerAnalysis;
+import com.ibm.wala.ipa.slicer.HeapStatement;
+import com.ibm.wala.ipa.slicer.SDG;
+import com.ibm.wala.ipa.slicer.Slicer.ControlDependenceOptions;
+import com.ibm.wala.ipa.slicer.Slicer.DataDependenceOptions;
+import com.ibm.wala.ipa.slicer.Statement;
+import com.ibm.wala.ipa.slicer.StatementWithInstructionIndex;
+import com.ibm.wala.util.collections.HashSetFactory;
+
+/**
+ * Computes backward slices of many seeds over one shared SDG.  The SDG of
+ * an analysis snapshot is built once, in the background on first use, and
+ * the slices of a batch of seeds are computed in parallel on a fork-join pool; each slice
+ * is remembered, so a seed is sliced at most once per snapshot.
+ *
+ * The SDG builds itself lazily and is not safe for concurrent use, so the
+ * predecessors of each statement are looked up under a lock and cached;
+ * the traversals themselves run unlocked.  A traversal follows only
+ * realizable paths: after descending into a callee through a return, it
+ * leaves the callee only to the call site it came from.  It remembers only
+ * the innermost MAX_CALL_STRING call sites it descended through; once it
+ * has left all the call sites it remembers, it may leave to any of them.
+ * That keeps the contexts finite, so traversals of recursive code
+ * converge.  The statements of a slice are listed nearest to the seed
+ * first.
+ *
+ * Each slice is limited by a budget of statements, call depth and time;
+ * a slice that exceeds it is cut short, keeping the statements nearest to
+ * the seed found so far.  Waiting for the SDG counts against the time, and
+ * a seed whose time runs out before the SDG is built is not sliced yet.
+ */
+public class BatchSlicer {
+	/** the longest call strings kept, since each call site may multiply the contexts of a slice */
+	public static final int MAX_CALL_STRING = 8;
+
+	public enum Mode {
+		/** all data dependences, including those through base pointers and the heap */
+		FULL(DataDependenceOptions.FULL),
+		/** a thin slice: values flow, but the pointers they are read through are not followed */
+		THIN(DataDependenceOptions.NO_BASE_PTRS);
+
+		private final DataDependenceOptions data;
+
+		private Mode(DataDependenceOptions data) {
+			this.data = data;
+		}
+	}
+
+	/**
+	 * Limits on the work done for one seed.
+	 */
+	public static class Budget {
+		/** the deepest any slice descends into callees, so that slices of recursive code terminate */
+		public static final int MAX_CALL_DEPTH = 32;
+
+		public static final Budget DEFAULT = new Budget(5000, 4, 250);
+		/** no limits on statements or time; calls are followed MAX_CALL_DEPTH deep */
+		public static final Budget UNLIMITED = new Budget(Integer.MAX_VALUE, MAX_CALL_DEPTH, Long.MAX_VALUE);
+
+		private final int maxStatements;
+		private final int maxCallDepth;
+		private final long maxMillis;
+
+		/**
+		 * @param maxStatements how many statements a slice may visit
+		 * @param maxCallDepth how deep a slice may descend into callees, at
+		 *   most MAX_CALL_DEPTH
+		 * @param maxMillis how long a slice may take
+		 */
+		public Budget(int maxStatements, int maxCallDepth, long maxMillis) {
+			this.maxStatements = maxStatements;
+			this.maxCallDepth = Math.max(0, Math.min(maxCallDepth, MAX_CALL_DEPTH));
+			this.maxMillis = maxMillis;
+		}
+	}
+
+	private final CallGraph CG;
+	private final PointerAnalysis<InstanceKey> PA;
+	private final DataDependenceOptions data;
+	private final Budget budget;
+	private final ForkJoinPool pool;
+	private CompletableFuture<SDG<InstanceKey>> sdg;
+	private final Map<Statement, Statement[]> predecessors = new ConcurrentHashMap<>();
+	private final Map<Statement, List<Statement>> slices = new ConcurrentHashMap<>();
+
+	public BatchSlicer(CallGraph CG, PointerAnalysis<InstanceKey> PA, Mode mode, Budget budget, ForkJoinPool pool) {
+		this.CG = CG;
+		this.PA = PA;
+		this.data = mode.data;
+		this.budget = budget;
+		this.pool = pool;
+	}
+
+	/**
+	 * The innermost call sites through which a traversal descended into
+	 * callees, innermost first, and how deep into callees it is; an empty
+	 * context allows leaving to any call site.
+	 */
+	private static final class Context {
+		private static final Context EMPTY = new Context(null, -1, null, 0);
+
+		private final CGNode caller;
+		private final int call;
+		private final Context outer;
+		// the number of call sites remembered
+		private final int length;
+		// the number of callees descended into and not left, remembered or not
+		private final int calls;
+		private final int hash;
+
+		private Context(CGNode caller, int call, Context outer, int calls) {
+			this.caller = caller;
+			this.call = call;
+			this.outer = outer;
+			this.length = outer == null? 0: outer.length + 1;
+			this.calls = calls;
+			this.hash = outer == null? calls: Objects.hash(caller, call, outer.hash, calls);
+		}
+
+		private static Context empty(int calls) {
+			return calls == 0? EMPTY: new Context(null, -1, null, calls);
+		}
+
+		private boolean isEmpty() {
+			return outer == null;
+		}
+
+		/**
+		 * @return this context entered through another call site, keeping at
+		 *   most MAX_CALL_STRING call sites by forgetting the outermost ones
+		 */
+		private Context push(CGNode caller, int call) {
+			return new Context(caller, call, length < MAX_CALL_STRING? this: dropOutermost(), calls + 1);
+		}
+
+		private Context dropOutermost() {
+			return outer.isEmpty()? empty(calls): new Context(caller, call, outer.dropOutermost(), calls);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			} else if (!(obj instanceof Context)) {
+				return false;
+			}
+			Context other = (Context) obj;
+			return hash == other.hash && call == other.call && calls == other.calls && Objects.equals(caller, other.caller) && Objects.equals(outer, other.outer);
+		}
+	}
+
+	private static final class State {
+		private final Statement statement;
+		private final Context context;
+
+		private State(Statement statement, Context context) {
+			this.statement = statement;
+			this.context = context;
+		}
+
+		@Override
+		public int hashCode() {
+			return statement.hashCode() * 31 + context.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof State)) {
+				return false;
+			}
+			State other = (State) obj;
+			return statement.equals(other.statement) && context.equals(other.context);
+		}
+	}
+
+	/**
+	 * @return the SDG, which starts being built on the pool on first use
+	 */
+	private synchronized CompletableFuture<SDG<InstanceKey>> sdg() {
+		if (sdg == null) {
+			sdg = CompletableFuture.supplyAsync(() -> new SDG<InstanceKey>(CG, PA, data, ControlDependenceOptions.NONE), pool);
+		}
+		return sdg;
+	}
+
+	private Statement[] predecessors(SDG<InstanceKey> sdg, Statement s) {
+		Statement[] known = predecessors.get(s);
+		if (known != null) {
+			return known;
+		}
+		synchronized (this) {
+			known = predecessors.get(s);
+			if (known == null) {
+				List<Statement> preds = new ArrayList<>();
+				for(Iterator<Statement> ps = sdg.getPredNodes(s); ps.hasNext(); ) {
+					preds.add(ps.next());
+				}
+				known = preds.toArray(new Statement[ preds.size() ]);
+				predecessors.put(s, known);
+			}
+			return known;
+		}
+	}
+
+	private static int callIndex(Statement caller) {
+		if (caller instanceof StatementWithInstructionIndex) {
+			return ((StatementWithInstructionIndex) caller).getInstructionIndex();
+		} else if (caller instanceof HeapStatement.HeapParamCaller) {
+			return ((HeapStatement.HeapParamCaller) caller).getCallIndex();
+		} else {
+			return ((HeapStatement.HeapReturnCaller) caller).getCallIndex();
+		}
+	}
+
+	private static boolean isReturnCaller(Statement s) {
+		switch (s.getKind()) {
+		case NORMAL_RET_CALLER:
+		case EXC_RET_CALLER:
+		case HEAP_RET_CALLER:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static boolean isReturnCallee(Statement s) {
+		switch (s.getKind()) {
+		case NORMAL_RET_CALLEE:
+		case EXC_RET_CALLEE:
+		case HEAP_RET_CALLEE:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static boolean isParamCallee(Statement s) {
+		return s.getKind() == Statement.Kind.PARAM_CALLEE || s.getKind() == Statement.Kind.HEAP_PARAM_CALLEE;
+	}
+
+	private static boolean isParamCaller(Statement s) {
+		return s.getKind() == Statement.Kind.PARAM_CALLER || s.getKind() == Statement.Kind.HEAP_PARAM_CALLER;
+	}
+
+	/**
+	 * @return the context in which pred is reached from s, or null if that
+	 *   would leave a callee to a different call site than it was entered
+	 *   from, or descend deeper into callees than the budget allows
+	 */
+	private Context step(Statement s, Context context, Statement pred) {
+		if (isReturnCaller(s) && isReturnCallee(pred)) {
+			if (context.calls >= budget.maxCallDepth) {
+				return null;
+			}
+			return context.push(s.getNode(), callIndex(s));
+		} else if (isParamCallee(s) && isParamCaller(pred) && context.calls > 0) {
+			if (context.isEmpty()) {
+				// entered through a call site that is no longer remembered
+				return Context.empty(context.calls - 1);
+			} else if (context.caller.equals(pred.getNode()) && context.call == callIndex(pred)) {
+				return context.outer;
+			} else {
+				return null;
+			}
+		} else {
+			return context;
+		}
+	}
+
+	/**
+	 * @return the slice of seed, or null if the SDG was not built in time
+	 */
+	private List<Statement> compute(Statement seed) {
+		long deadline = budget.maxMillis == Long.MAX_VALUE? Long.MAX_VALUE: System.currentTimeMillis() + budget.maxMillis;
+		SDG<InstanceKey> sdg;
+		try {
+			if (deadline == Long.MAX_VALUE) {
+				sdg = sdg().get();
+			} else {
+				sdg = sdg().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			}
+		} catch (TimeoutException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			assert false : e;
+			return null;
+		}
+
+		int visits = 0;
+		List<Statement> slice = new ArrayList<>();
+		Set<Statement> found = HashSetFactory.make();
+		Set<State> visited = HashSetFactory.make();
+		Deque<State> queue = new ArrayDeque<>();
+		State start = new State(seed, Context.EMPTY);
+		visited.add(start);
+		queue.add(start);
+		while (! queue.isEmpty()) {
+			if (++visits > budget.maxStatements || System.currentTimeMillis() > deadline) {
+				// breadth first, so what was found so far is what is nearest
+				break;
+			}
+			State state = queue.removeFirst();
+			if (found.add(state.statement)) {
+				slice.add(state.statement);
+			}
+			for(Statement pred : predecessors(sdg, state.statement)) {
+				Context context = step(state.statement, state.context, pred);
+				if (context != null) {
+					State next = new State(pred, context);
+					if (visited.add(next)) {
+						queue.addLast(next);
+					}
+				}
+			}
+		}
+		return Collections.unmodifiableList(slice);
+	}
+
+	/**
+	 * @return the backward slice of seed, nearest statements first, as far
+	 *   as the budget allows; empty if the SDG is not built in time, in
+	 *   which case seed is sliced again when asked next
+	 */
+	public List<Statement> slice(Statement seed) {
+		List<Statement> slice = slices.get(seed);
+		if (slice == null) {
+			slice = compute(seed);
+			if (slice == null) {
+				return Collections.emptyList();
+			}
+			List<Statement> raced = slices.putIfAbsent(seed, slice);
+			if (raced != null) {
+				slice = raced;
+			}
+		}
+		return slice;
+	}
+
+	/**
+	 * Slice all the given seeds, in parallel.
+	 */
+	public void sliceAll(Collection<Statement> seeds) {
+		pool.submit(() -> seeds.parallelStream().distinct().forEach(this::slice)).join();
+	}
+}
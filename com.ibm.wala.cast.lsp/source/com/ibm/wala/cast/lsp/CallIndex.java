@@ -0,0 +1,197 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.ibm.wala.cast.loader.AstMethod;
+import com.ibm.wala.cast.tree.CAstSourcePositionMap.Position;
+import com.ibm.wala.classLoader.CallSiteReference;
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ssa.SSAAbstractInvokeInstruction;
+
+/**
+ * An immutable index of the call edges of a call graph, by the numbers of
+ * the calling and called nodes.  Edges are kept in compressed sparse row
+ * form in both directions, each with the source position of its call, so
+ * finding the callers or callees of a node is a scan of a slice of an
+ * array rather than a walk over the call graph and the IRs of the callers.
+ *
+ * There is one edge for every call instruction and possible target; calls
+ * from code that is not source code have no position.
+ */
+public class CallIndex {
+
+	public interface CallConsumer {
+		void accept(int caller, int callee, Position site);
+	}
+
+	private static class Edges {
+		private int[] callers = new int[64];
+		private int[] callees = new int[64];
+		private Position[] sites = new Position[64];
+		private int size = 0;
+
+		private void add(int caller, int callee, Position site) {
+			if (size == callers.length) {
+				callers = Arrays.copyOf(callers, 2*size);
+				callees = Arrays.copyOf(callees, 2*size);
+				sites = Arrays.copyOf(sites, 2*size);
+			}
+			callers[size] = caller;
+			callees[size] = callee;
+			sites[size] = site;
+			size++;
+		}
+	}
+
+	public static CallIndex build(CallGraph CG) {
+		int nodes = CG.getMaxNumber() + 1;
+		int[] outStart = new int[nodes + 1];
+		Edges edges = new Edges();
+		for(int caller = 0; caller < nodes; caller++) {
+			outStart[caller] = edges.size;
+			CGNode n = CG.getNode(caller);
+			if (n == null) {
+				continue;
+			}
+			for(Iterator<CallSiteReference> sites = n.iterateCallSites(); sites.hasNext(); ) {
+				CallSiteReference site = sites.next();
+				SSAAbstractInvokeInstruction[] calls = 
+					n.getMethod() instanceof AstMethod? n.getIR().getCalls(site): null;
+				for(CGNode target : CG.getPossibleTargets(n, site)) {
+					int callee = CG.getNumber(target);
+					if (calls == null || calls.length == 0) {
+						edges.add(caller, callee, null);
+					} else {
+						for(SSAAbstractInvokeInstruction call : calls) {
+							edges.add(caller, callee, ((AstMethod)n.getMethod()).getSourcePosition(call.iIndex()));
+						}
+					}
+				}
+			}
+		}
+		outStart[nodes] = edges.size;
+
+		// counting sort of the edges by callee, keeping them in caller order
+		int[] inStart = new int[nodes + 1];
+		for(int e = 0; e < edges.size; e++) {
+			inStart[edges.callees[e] + 1]++;
+		}
+		for(int i = 0; i < nodes; i++) {
+			inStart[i + 1] += inStart[i];
+		}
+		int[] next = Arrays.copyOf(inStart, nodes);
+		int[] inEdges = new int[edges.size];
+		for(int e = 0; e < edges.size; e++) {
+			inEdges[next[edges.callees[e]]++] = e;
+		}
+
+		return new CallIndex(
+			outStart, 
+			Arrays.copyOf(edges.callers, edges.size), 
+			Arrays.copyOf(edges.callees, edges.size), 
+			Arrays.copyOf(edges.sites, edges.size), 
+			inStart, 
+			inEdges);
+	}
+
+	// edges are numbered in order of their callers; the outgoing edges of
+	// node n are outStart[n] to outStart[n+1], and its incoming edges are
+	// inEdges[inStart[n]] to inEdges[inStart[n+1]-1]
+	private final int[] outStart;
+	private final int[] callers;
+	private final int[] callees;
+	private final Position[] sites;
+	private final int[] inStart;
+	private final int[] inEdges;
+
+	private CallIndex(int[] outStart, int[] callers, int[] callees, Position[] sites, int[] inStart, int[] inEdges) {
+		this.outStart = outStart;
+		this.callers = callers;
+		this.callees = callees;
+		this.sites = sites;
+		this.inStart = inStart;
+		this.inEdges = inEdges;
+	}
+
+	private boolean isNode(int node) {
+		return node >= 0 && node < outStart.length - 1;
+	}
+
+	/**
+	 * visit the calls made by a node, in the order of its call sites
+	 */
+	public void forEachCallFrom(int caller, CallConsumer action) {
+		if (isNode(caller)) {
+			for(int e = outStart[caller]; e < outStart[caller+1]; e++) {
+				action.accept(caller, callees[e], sites[e]);
+			}
+		}
+	}
+
+	/**
+	 * visit the calls made to a node, in order of the calling nodes
+	 */
+	public void forEachCallTo(int callee, CallConsumer action) {
+		if (isNode(callee)) {
+			for(int i = inStart[callee]; i < inStart[callee+1]; i++) {
+				int e = inEdges[i];
+				action.accept(callers[e], callee, sites[e]);
+			}
+		}
+	}
+
+	/**
+	 * @return the numbers of the nodes that call the given node, ascending
+	 */
+	public int[] callers(int callee) {
+		if (! isNode(callee)) {
+			return new int[0];
+		}
+		int[] result = new int[inStart[callee+1] - inStart[callee]];
+		int size = 0;
+		for(int i = inStart[callee]; i < inStart[callee+1]; i++) {
+			int caller = callers[inEdges[i]];
+			if (size == 0 || result[size-1] != caller) {
+				result[size++] = caller;
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * @return the numbers of the nodes the given node calls, ascending
+	 */
+	public int[] callees(int caller) {
+		if (! isNode(caller)) {
+			return new int[0];
+		}
+		int[] result = Arrays.copyOfRange(callees, outStart[caller], outStart[caller+1]);
+		Arrays.sort(result);
+		int size = 0;
+		for(int callee : result) {
+			if (size == 0 || result[size-1] != callee) {
+				result[size++] = callee;
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * @return the number of call edges in this index
+	 */
+	public int size() {
+		return callers.length;
+	}
+}
@@ -0,0 +1,162 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+
+import com.ibm.wala.classLoader.Module;
+import com.ibm.wala.classLoader.ModuleEntry;
+import com.ibm.wala.classLoader.SourceModule;
+import com.ibm.wala.util.collections.NonNullSingletonIterator;
+
+/**
+ * A source file of the workspace that the editor does not have open.  Its
+ * contents are read once, through a file channel, when it is indexed, so
+ * that the module and its digest stay the same even if the file changes
+ * afterwards; a file that changed is read again as a new module.
+ */
+public class FileModule implements Module, ModuleEntry, SourceModule {
+	private final Path path;
+	private final String fileName;
+	private final URL fileURL;
+	private final ByteBuffer contents;
+	private final String digest;
+	private final long size;
+	private final FileTime lastModified;
+	private volatile Rope text;
+
+	private FileModule(Path path, ByteBuffer contents, BasicFileAttributes attributes) throws MalformedURLException {
+		this.path = path;
+		this.fileName = Util.canonicalUri(path);
+		this.fileURL = new URL(fileName);
+		this.contents = contents.asReadOnlyBuffer();
+		this.digest = ModuleDigest.of(this.contents.duplicate());
+		this.size = attributes.size();
+		this.lastModified = attributes.lastModifiedTime();
+	}
+
+	/**
+	 * read the file at path, whose attributes were just read
+	 */
+	public static FileModule read(Path path, BasicFileAttributes attributes) throws IOException {
+		if (attributes.size() > Integer.MAX_VALUE) {
+			throw new IOException(path + " is too large to analyze");
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer bytes = ByteBuffer.allocate((int) channel.size());
+			while (bytes.hasRemaining() && channel.read(bytes) != -1) {
+				// keep reading
+			}
+			// go through Buffer so the calls link on Java 8 as well as later releases
+			((Buffer) bytes).flip();
+			return new FileModule(path, bytes, attributes);
+		}
+	}
+
+	/**
+	 * @return whether the file still looks as it did when it was read,
+	 *   judging by its size and modification time
+	 */
+	public boolean isCurrent(BasicFileAttributes attributes) {
+		return size == attributes.size() && lastModified.equals(attributes.lastModifiedTime());
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the content digest of this module, computed when it was read
+	 */
+	public String getDigest() {
+		return digest;
+	}
+
+	/**
+	 * @return the contents of this module as text, decoded once
+	 */
+	public Rope getText() {
+		Rope result = text;
+		if (result == null) {
+			text = result = Rope.of(StandardCharsets.UTF_8.decode(contents.duplicate()));
+		}
+		return result;
+	}
+
+	@Override
+	public String getName() {
+		return fileName;
+	}
+
+	@Override
+	public boolean isClassFile() {
+		return false;
+	}
+
+	@Override
+	public boolean isSourceFile() {
+		return true;
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return LSPStringModule.stream(contents);
+	}
+
+	@Override
+	public boolean isModuleFile() {
+		return false;
+	}
+
+	@Override
+	public Module asModule() {
+		return null;
+	}
+
+	@Override
+	public String getClassName() {
+		return null;
+	}
+
+	@Override
+	public Module getContainer() {
+		return null;
+	}
+
+	@Override
+	public Iterator<? extends ModuleEntry> getEntries() {
+		return new NonNullSingletonIterator<FileModule>(this);
+	}
+
+	@Override
+	public Reader getInputReader() {
+		return new InputStreamReader(getInputStream(), StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public URL getURL() {
+		return fileURL;
+	}
+}
@@ -0,0 +1,208 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+import com.ibm.wala.analysis.pointers.HeapGraph;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceFieldKey;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.util.collections.Pair;
+
+/**
+ * Renders a value analysis over the heap: where the analysis has nothing
+ * to say about a pointer, the fields of the objects it points to are
+ * rendered instead, recursively.
+ *
+ * A field that leads back to an object being rendered is shown as a
+ * back-reference "^n" to the object n fields up.  Rendering stops at a
+ * depth, at a number of fields per object, and at a number of pointers
+ * visited per value rendered, marking the omitted parts with "...".
+ *
+ * A renderer belongs to one analysis snapshot, so it memoizes what it
+ * renders, including renderings cut short at a depth, which are kept by
+ * the depth that was left; shared substructure is rendered once.  Use
+ * {@link #fresh()} for the next snapshot.
+ */
+public class HeapRenderer implements BiFunction<Boolean, PointerKey, String> {
+	public static final int DEFAULT_MAX_DEPTH = 8;
+	public static final int DEFAULT_MAX_WIDTH = 32;
+	public static final int DEFAULT_MAX_NODES = 1000;
+
+	private static final String OMITTED = "...";
+	// the depth left by renderings that did not stop at a depth
+	private static final int ANY_DEPTH = -1;
+
+	private final HeapGraph<InstanceKey> H;
+	private final BiFunction<Boolean, PointerKey, String> analysis;
+	private final int maxDepth;
+	private final int maxWidth;
+	private final int maxNodes;
+	// renderings that do not depend on where they were reached from, by depth left
+	private final Map<Pair<Pair<Boolean, PointerKey>, Integer>, Rendering> memo = new ConcurrentHashMap<>();
+
+	private static class Rendering {
+		private final String text;
+		// the shallowest depth of the objects being rendered that the text refers back to
+		private final int refersTo;
+		// whether the text stops at the depth limit
+		private final boolean truncated;
+		// whether the text stops at the node budget of its walk
+		private final boolean exhausted;
+
+		private Rendering(String text, int refersTo, boolean truncated, boolean exhausted) {
+			this.text = text;
+			this.refersTo = refersTo;
+			this.truncated = truncated;
+			this.exhausted = exhausted;
+		}
+	}
+
+	private static final Rendering NOTHING = new Rendering(null, Integer.MAX_VALUE, false, false);
+
+	/**
+	 * The state of rendering one value.
+	 */
+	private static class Walk {
+		private final boolean useMarkdown;
+		// the objects being rendered, by depth
+		private final Map<PointerKey, Integer> path = new LinkedHashMap<>();
+		private int nodesLeft;
+
+		private Walk(boolean useMarkdown, int maxNodes) {
+			this.useMarkdown = useMarkdown;
+			this.nodesLeft = maxNodes;
+		}
+	}
+
+	public HeapRenderer(HeapGraph<InstanceKey> H, BiFunction<Boolean, PointerKey, String> analysis, int maxDepth, int maxWidth, int maxNodes) {
+		this.H = H;
+		this.analysis = analysis;
+		this.maxDepth = maxDepth;
+		this.maxWidth = maxWidth;
+		this.maxNodes = maxNodes;
+	}
+
+	public HeapRenderer(HeapGraph<InstanceKey> H, BiFunction<Boolean, PointerKey, String> analysis, int maxDepth, int maxWidth) {
+		this(H, analysis, maxDepth, maxWidth, DEFAULT_MAX_NODES);
+	}
+
+	/**
+	 * @return a renderer like this one, memoizing nothing yet
+	 */
+	public HeapRenderer fresh() {
+		return new HeapRenderer(H, analysis, maxDepth, maxWidth, maxNodes);
+	}
+
+	@Override
+	public String apply(Boolean useMarkdown, PointerKey ptr) {
+		return render(new Walk(useMarkdown, maxNodes), ptr).text;
+	}
+
+	private Rendering render(Walk walk, PointerKey ptr) {
+		if (walk.nodesLeft <= 0) {
+			return new Rendering("{" + OMITTED + "}", Integer.MAX_VALUE, false, true);
+		}
+		walk.nodesLeft--;
+
+		int depth = walk.path.size();
+		if (walk.path.containsKey(ptr)) {
+			int target = walk.path.get(ptr);
+			return new Rendering("^" + (depth - target), target, false, false);
+		}
+
+		Pair<Boolean, PointerKey> key = Pair.make(walk.useMarkdown, ptr);
+		Rendering known = memo.get(Pair.make(key, ANY_DEPTH));
+		if (known == null) {
+			known = memo.get(Pair.make(key, maxDepth - depth));
+		}
+		if (known != null) {
+			return known;
+		}
+
+		Rendering result;
+		String mine = analysis.apply(walk.useMarkdown, ptr);
+		if (mine != null) {
+			result = new Rendering(mine, Integer.MAX_VALUE, false, false);
+		} else if (! H.containsNode(ptr)) {
+			result = NOTHING;
+		} else if (depth >= maxDepth) {
+			result = new Rendering("{" + OMITTED + "}", Integer.MAX_VALUE, true, false);
+		} else {
+			walk.path.put(ptr, depth);
+			try {
+				result = renderFields(walk, ptr);
+			} finally {
+				walk.path.remove(ptr);
+			}
+		}
+
+		// back-references are relative, so only those above this object tie it to where it was reached from
+		if (result.refersTo >= depth && !result.exhausted) {
+			memo.put(Pair.make(key, result.truncated? maxDepth - depth: ANY_DEPTH), result);
+		}
+		return result;
+	}
+
+	private Rendering renderFields(Walk walk, PointerKey ptr) {
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		int refersTo = Integer.MAX_VALUE;
+		boolean truncated = false;
+		boolean exhausted = false;
+		boolean omitted = false;
+		objects: for(Iterator<?> Is = H.getSuccNodes(ptr); Is.hasNext(); ) {
+			if (walk.nodesLeft <= 0) {
+				exhausted = omitted = true;
+				break;
+			}
+			for(Iterator<?> fields = H.getSuccNodes(Is.next()); fields.hasNext(); ) {
+				Object f = fields.next();
+				if (f instanceof InstanceFieldKey) {
+					InstanceFieldKey field = (InstanceFieldKey) f;
+					String name = field.getField().getName().toString();
+					if (entries.containsKey(name)) {
+						continue;
+					} else if (entries.size() >= maxWidth) {
+						omitted = true;
+						break objects;
+					}
+					Rendering sub = render(walk, field);
+					refersTo = Math.min(refersTo, sub.refersTo);
+					truncated |= sub.truncated;
+					exhausted |= sub.exhausted;
+					if (sub.text != null) {
+						entries.put(name, sub.text);
+					}
+				}
+			}
+		}
+		if(entries.isEmpty()) {
+			return new Rendering(null, refersTo, truncated, exhausted);
+		}
+
+		String newline = walk.useMarkdown ? "\n\n" : "\n";
+		List<String> contents = entries.entrySet().stream()
+				.map((Entry<String,String> entry) -> (walk.useMarkdown ? ("_" + entry.getKey() + "_") : entry.getKey()) + ": " + entry.getValue())
+				.collect(Collectors.toList());
+		if (omitted) {
+			contents.add(OMITTED);
+		}
+		return new Rendering("{" + String.join("," + newline, contents) + "}", refersTo, truncated, exhausted);
+	}
+}
@@ -0,0 +1,156 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import com.ibm.wala.util.collections.HashMapFactory;
+
+/**
+ * A map holding at most a fixed number of entries, evicting the least
+ * recently used one when it is full.  All operations are synchronized.
+ * Values are computed outside of the lock, and concurrent requests for a
+ * value that is being computed wait for that computation rather than
+ * starting their own.
+ */
+public class LRUCache<K, V> {
+	private final int capacity;
+	private final LinkedHashMap<K, V> entries;
+	private final Map<K, CompletableFuture<V>> inFlight = HashMapFactory.make();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	public LRUCache(int capacity) {
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > LRUCache.this.capacity;
+			}
+		};
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized V get(K key) {
+		return entries.get(key);
+	}
+
+	public synchronized void put(K key, V value) {
+		entries.put(key, value);
+	}
+
+	/**
+	 * @return the cached value for key, computing and caching it if there
+	 *   is none; if another thread is computing it already, wait for its
+	 *   result instead
+	 */
+	public V computeIfAbsent(K key, Function<? super K, ? extends V> compute) {
+		CompletableFuture<V> flight;
+		synchronized (this) {
+			V value = entries.get(key);
+			if (value != null) {
+				hits.incrementAndGet();
+				return value;
+			}
+			flight = inFlight.get(key);
+			if (flight != null) {
+				coalesced.incrementAndGet();
+			} else {
+				misses.incrementAndGet();
+				inFlight.put(key, new CompletableFuture<>());
+			}
+		}
+
+		if (flight != null) {
+			try {
+				return flight.join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw e;
+			}
+		}
+
+		V value;
+		try {
+			value = compute.apply(key);
+		} catch (RuntimeException | Error e) {
+			synchronized (this) {
+				inFlight.remove(key).completeExceptionally(e);
+			}
+			throw e;
+		}
+		synchronized (this) {
+			if (value != null) {
+				entries.put(key, value);
+			}
+			inFlight.remove(key).complete(value);
+		}
+		return value;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * drop the entries whose keys match, e.g. those of outdated versions
+	 */
+	public synchronized void removeIf(Predicate<? super K> stale) {
+		entries.keySet().removeIf(stale);
+	}
+
+	/**
+	 * apply action to each entry, without counting it as a use
+	 */
+	public synchronized void forEach(BiConsumer<? super K, ? super V> action) {
+		entries.forEach(action);
+	}
+
+	/**
+	 * @return how many lookups found their value in the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return how many lookups had to compute their value
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return how many lookups waited for a computation already in progress
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+}
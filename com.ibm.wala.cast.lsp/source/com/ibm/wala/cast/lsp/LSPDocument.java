@@ -0,0 +1,59 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import java.util.List;
+
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+
+/**
+ * One version of an open editor document.  Instances are immutable; applying
+ * a change produces a new document whose text shares structure with this one.
+ */
+public class LSPDocument {
+	private final String languageId;
+	private final int version;
+	private final Rope text;
+
+	public LSPDocument(String languageId, int version, Rope text) {
+		this.languageId = languageId;
+		this.version = version;
+		this.text = text;
+	}
+
+	public String getLanguageId() {
+		return languageId;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public Rope getText() {
+		return text;
+	}
+
+	public LSPDocument apply(int newVersion, List<TextDocumentContentChangeEvent> changes) {
+		Rope result = text;
+		for(TextDocumentContentChangeEvent change : changes) {
+			Range range = change.getRange();
+			if (range == null) {
+				result = Rope.of(change.getText());
+			} else {
+				int start = result.offsetOf(range.getStart().getLine(), range.getStart().getCharacter());
+				int end = result.offsetOf(range.getEnd().getLine(), range.getEnd().getCharacter());
+				result = result.replace(start, Math.max(start, end), change.getText());
+			}
+		}
+		return new LSPDocument(languageId, newVersion, result);
+	}
+}
@@ -11,12 +11,14 @@
 package com.ibm.wala.cast.lsp;
 
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 
 import com.ibm.wala.classLoader.Module;
@@ -27,9 +29,15 @@ import com.ibm.wala.util.collections.NonNullSingletonIterator;
 public class LSPStringModule implements Module, ModuleEntry, SourceModule {
 	private final String fileName;
 	private final URL fileURL;
-	private final String contents;
+	private final Rope contents;
+	private volatile ByteBuffer encoded;
+	private volatile String digest;
 
 	public LSPStringModule(String fileName, String contents) {
+		this(fileName, Rope.of(contents));
+	}
+
+	public LSPStringModule(String fileName, Rope contents) {
 		this.fileName = Util.mangleUri(fileName);
 		URL url = null;
 		try {
@@ -56,21 +64,101 @@ public class LSPStringModule implements Module, ModuleEntry, SourceModule {
 		return true;
 	}
 
+	/**
+	 * @return the UTF-8 encoding of the contents, computed on first use and
+	 *   shared, read-only, by every stream opened afterwards
+	 */
+	private ByteBuffer getEncoded() {
+		ByteBuffer bytes = encoded;
+		if (bytes == null) {
+			bytes = ByteBuffer.wrap(contents.toString().getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+			encoded = bytes;
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return the content digest of this module, computed on first use
+	 */
+	public String getDigest() {
+		String d = digest;
+		if (d == null) {
+			d = ModuleDigest.of(getEncoded());
+			digest = d;
+		}
+		return d;
+	}
+
 	@Override
 	public InputStream getInputStream() {
+		return stream(getEncoded());
+	}
+
+	/**
+	 * @return a stream over the remaining bytes of buffer, which is left as
+	 *   it is; the stream supports mark and reset
+	 */
+	static InputStream stream(ByteBuffer buffer) {
+		ByteBuffer bytes = buffer.duplicate();
+		// go through Buffer so the calls link on Java 8 as well as later releases
+		final Buffer state = bytes;
+		state.mark();
 		return new InputStream() {
-			private int i = 0;
 			@Override
 			public int read() {
-				if (i >= contents.getBytes().length) {
+				return bytes.hasRemaining()? bytes.get() & 0xff: -1;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) {
+				if (len == 0) {
+					return 0;
+				} else if (! bytes.hasRemaining()) {
 					return -1;
 				} else {
-					return contents.getBytes()[i++];
+					int n = Math.min(len, bytes.remaining());
+					bytes.get(b, off, n);
+					return n;
 				}
 			}
+
+			@Override
+			public long skip(long n) {
+				int skipped = (int) Math.min(Math.max(n, 0), bytes.remaining());
+				state.position(state.position() + skipped);
+				return skipped;
+			}
+
+			@Override
+			public int available() {
+				return bytes.remaining();
+			}
+
+			@Override
+			public boolean markSupported() {
+				return true;
+			}
+
+			@Override
+			public synchronized void mark(int readlimit) {
+				state.mark();
+			}
+
+			@Override
+			public synchronized void reset() {
+				state.reset();
+			}
 		};
 	}
 
+	/**
+	 * @return the text of this module; since ropes are immutable, this is a
+	 *   stable snapshot even while the editor keeps changing the document
+	 */
+	public Rope getSnapshot() {
+		return contents;
+	}
+
 	@Override
 	public boolean isModuleFile() {
 		return false;
@@ -98,7 +186,7 @@ public class LSPStringModule implements Module, ModuleEntry, SourceModule {
 
 	@Override
 	public Reader getInputReader() {
-		return new InputStreamReader(getInputStream());
+		return contents.reader();
 	}
 
 	@Override
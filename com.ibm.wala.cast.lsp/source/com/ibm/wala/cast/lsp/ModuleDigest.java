@@ -0,0 +1,118 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import com.ibm.wala.classLoader.Module;
+import com.ibm.wala.classLoader.ModuleEntry;
+import com.ibm.wala.util.collections.HashMapFactory;
+
+/**
+ * Content digests of source modules, so the server can tell which modules
+ * actually changed between analyses without comparing their text.
+ */
+public class ModuleDigest {
+	private static final String UNREADABLE = "unreadable ";
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] digest) {
+		StringBuilder sb = new StringBuilder(2 * digest.length);
+		for(byte b : digest) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	public static String of(ByteBuffer bytes) {
+		MessageDigest md = sha256();
+		md.update(bytes.duplicate());
+		return hex(md.digest());
+	}
+
+	public static String of(InputStream stream) throws IOException {
+		MessageDigest md = sha256();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = stream.read(buffer)) != -1) {
+			md.update(buffer, 0, n);
+		}
+		return hex(md.digest());
+	}
+
+	/**
+	 * @return the digest of the contents of a module, or null if they
+	 *   cannot be read, in which case it must be taken to have changed
+	 */
+	public static String of(Module module) {
+		if (module instanceof LSPStringModule) {
+			return ((LSPStringModule)module).getDigest();
+		} else if (module instanceof FileModule) {
+			return ((FileModule)module).getDigest();
+		} else if (module instanceof ModuleEntry) {
+			try (InputStream s = ((ModuleEntry)module).getInputStream()) {
+				return s == null? null: of(s);
+			} catch (IOException e) {
+				return null;
+			}
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the digest of a module or, if it cannot be read, a key that
+	 *   is only equal for the same module object
+	 */
+	public static String key(Module module) {
+		String digest = of(module);
+		return digest != null? digest: UNREADABLE + System.identityHashCode(module);
+	}
+
+	/**
+	 * @return whether key is that of a module that could not be read, and
+	 *   so only ever equals itself
+	 */
+	public static boolean isUnreadable(String key) {
+		return key.startsWith(UNREADABLE);
+	}
+
+	/**
+	 * @return the digest key of each module, by module name
+	 */
+	public static Map<String, String> of(Collection<? extends Module> modules) {
+		Map<String, String> result = HashMapFactory.make();
+		for(Module module : modules) {
+			result.put(name(module), key(module));
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	private static String name(Module module) {
+		return module instanceof ModuleEntry? ((ModuleEntry)module).getName(): module.toString();
+	}
+}
@@ -0,0 +1,234 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import com.ibm.wala.cast.tree.CAstSourcePositionMap.Position;
+import com.ibm.wala.util.collections.HashMapFactory;
+
+/**
+ * An immutable index of the source ranges of one document, answering which
+ * range most closely encloses a cursor.  Ranges are stored as packed
+ * line/column longs sorted by start, outer ranges before the ranges they
+ * contain, and each range knows its enclosing ranges by binary lifting, so
+ * a lookup is two binary searches and allocates nothing.
+ *
+ * Ranges of source code nest properly; ranges that overlap without one
+ * containing the other are tolerated, but a lookup then sees only one of
+ * them as enclosing.
+ */
+public class PositionIndex<T> {
+
+	/**
+	 * Collects the ranges of a document; as for a map, a later value for
+	 * the same range replaces an earlier one.
+	 */
+	public static class Builder<T> {
+		private final List<Position> positions = new ArrayList<>();
+		private final List<T> values = new ArrayList<>();
+
+		public void put(Position position, T value) {
+			positions.add(position);
+			values.add(value);
+		}
+
+		public void putAll(Builder<T> other) {
+			positions.addAll(other.positions);
+			values.addAll(other.values);
+		}
+
+		public PositionIndex<T> build() {
+			return new PositionIndex<>(positions, values);
+		}
+	}
+
+	public static <T> Map<URL, PositionIndex<T>> build(Map<URL, Builder<T>> builders) {
+		Map<URL, PositionIndex<T>> result = HashMapFactory.make();
+		builders.forEach((url, builder) -> result.put(url, builder.build()));
+		return Collections.unmodifiableMap(result);
+	}
+
+	private final long[] starts;
+	private final long[] ends;
+	private final Position[] positions;
+	private final Object[] values;
+	// up[j][i] is the 2^j-th enclosing range of range i, or -1
+	private final int[][] up;
+
+	private static long pack(int line, int column) {
+		return ((long) line << 32) + column;
+	}
+
+	private static long start(Position p) {
+		return pack(p.getFirstLine(), p.getFirstCol());
+	}
+
+	private static long end(Position p) {
+		return pack(p.getLastLine(), p.getLastCol());
+	}
+
+	private PositionIndex(List<Position> added, List<T> addedValues) {
+		int n = added.size();
+		long[] s = new long[n];
+		long[] e = new long[n];
+		Integer[] order = new Integer[n];
+		for(int i = 0; i < n; i++) {
+			s[i] = start(added.get(i));
+			e[i] = end(added.get(i));
+			order[i] = i;
+		}
+		// stable, so the last of several values for one range comes last
+		Arrays.sort(order, (a, b) -> s[a] != s[b]? Long.compare(s[a], s[b]): Long.compare(e[b], e[a]));
+
+		int size = 0;
+		for(int i = 0; i < n; i++) {
+			int o = order[i];
+			if (size > 0 && s[order[size-1]] == s[o] && e[order[size-1]] == e[o]) {
+				order[size-1] = o;
+			} else {
+				order[size++] = o;
+			}
+		}
+
+		starts = new long[size];
+		ends = new long[size];
+		positions = new Position[size];
+		values = new Object[size];
+		for(int i = 0; i < size; i++) {
+			int o = order[i];
+			starts[i] = s[o];
+			ends[i] = e[o];
+			positions[i] = added.get(o);
+			values[i] = addedValues.get(o);
+		}
+
+		int levels = 1;
+		while ((1 << levels) < size) {
+			levels++;
+		}
+		up = new int[levels][size];
+		int[] stack = new int[size];
+		int top = 0;
+		for(int i = 0; i < size; i++) {
+			while (top > 0 && ends[stack[top-1]] < ends[i]) {
+				top--;
+			}
+			up[0][i] = top > 0? stack[top-1]: -1;
+			stack[top++] = i;
+		}
+		for(int j = 1; j < levels; j++) {
+			for(int i = 0; i < size; i++) {
+				int mid = up[j-1][i];
+				up[j][i] = mid == -1? -1: up[j-1][mid];
+			}
+		}
+	}
+
+	/**
+	 * @return the index of the last range starting at or before start
+	 */
+	private int floor(long start) {
+		int lo = 0, hi = starts.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (starts[mid] <= start) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo - 1;
+	}
+
+	private int nearestIndex(Position pos) {
+		long start = start(pos);
+		long end = end(pos);
+		int floor = floor(start);
+		if (floor < 0 || ends[floor] >= end) {
+			return floor;
+		}
+
+		// enclosing ranges end later the further out they are, so find the
+		// innermost one that reaches past the cursor
+		int i = floor;
+		for(int j = up.length-1; j >= 0; j--) {
+			int outer = up[j][i];
+			if (outer != -1 && ends[outer] < end) {
+				i = outer;
+			}
+		}
+		int enclosing = up[0][i];
+		return enclosing != -1? enclosing: floor;
+	}
+
+	/**
+	 * @return the innermost range enclosing pos or, when no range encloses
+	 *   it, the closest range starting before it
+	 */
+	public Position nearest(Position pos) {
+		int i = nearestIndex(pos);
+		return i < 0? null: positions[i];
+	}
+
+	@SuppressWarnings("unchecked")
+	public T nearestValue(Position pos) {
+		int i = nearestIndex(pos);
+		return i < 0? null: (T) values[i];
+	}
+
+	/**
+	 * @return the value of exactly the range of pos, if any
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(Position pos) {
+		long start = start(pos);
+		long end = end(pos);
+		int lo = 0, hi = starts.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (starts[mid] < start || (starts[mid] == start && ends[mid] > end)) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo < starts.length && starts[lo] == start && ends[lo] == end? (T) values[lo]: null;
+	}
+
+	public boolean containsKey(Position pos) {
+		return get(pos) != null;
+	}
+
+	public int size() {
+		return positions.length;
+	}
+
+	/**
+	 * @return the ranges of this index, in order of their start
+	 */
+	public List<Position> positions() {
+		return Collections.unmodifiableList(Arrays.asList(positions));
+	}
+
+	@SuppressWarnings("unchecked")
+	public void forEach(BiConsumer<Position, T> action) {
+		for(int i = 0; i < positions.length; i++) {
+			action.accept(positions[i], (T) values[i]);
+		}
+	}
+}
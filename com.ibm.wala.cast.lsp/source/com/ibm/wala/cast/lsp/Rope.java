@@ -0,0 +1,442 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import java.io.Reader;
+
+/**
+ * An immutable, height-balanced rope of text chunks.  Edits return a new
+ * rope that shares all untouched chunks with the old one, so any version
+ * of a document can be handed out as a snapshot without copying it.  Every
+ * node caches its length and the number of line breaks it contains, which
+ * lets LSP line/character positions be turned into offsets in O(log n).
+ */
+public abstract class Rope implements CharSequence {
+	/** chunks are split to at most this many chars when built from text */
+	private static final int LEAF_SIZE = 1024;
+
+	/** leaves edited in place may grow up to this size before being split */
+	private static final int MAX_LEAF_SIZE = 2 * LEAF_SIZE;
+
+	public static final Rope EMPTY = new Leaf("");
+
+	public static Rope of(CharSequence text) {
+		if (text instanceof Rope) {
+			return (Rope) text;
+		} else {
+			return build(text.toString(), 0, text.length());
+		}
+	}
+
+	private static Rope build(String text, int start, int end) {
+		if (end - start <= LEAF_SIZE) {
+			return new Leaf(text.substring(start, end));
+		} else {
+			int chunks = (end - start + LEAF_SIZE - 1) / LEAF_SIZE;
+			int mid = start + (chunks / 2) * LEAF_SIZE;
+			return new Node(build(text, start, mid), build(text, mid, end));
+		}
+	}
+
+	private Rope() {
+
+	}
+
+	abstract int height();
+
+	/** number of '\n' characters in this rope */
+	abstract int lineBreaks();
+
+	/** offset just after the k-th (1-based) line break */
+	abstract int afterLineBreak(int k);
+
+	abstract Rope editLeaf(int start, int end, String text);
+
+	/**
+	 * copy the characters in [srcBegin, srcEnd) into dst, starting at dstBegin
+	 */
+	public abstract void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin);
+
+	/**
+	 * @return the number of lines in this text; a trailing line with no
+	 *   line break counts, so this is never less than 1
+	 */
+	public int lineCount() {
+		return lineBreaks() + 1;
+	}
+
+	/**
+	 * @return offset of the first character of the given 0-based line
+	 */
+	public int lineStart(int line) {
+		if (line <= 0) {
+			return 0;
+		} else if (line > lineBreaks()) {
+			return length();
+		} else {
+			return afterLineBreak(line);
+		}
+	}
+
+	/**
+	 * Convert an LSP-style position into an offset.  Characters past the end
+	 * of a line are clamped to the end of that line, as the protocol requires.
+	 */
+	public int offsetOf(int line, int character) {
+		line = Math.max(line, 0);
+		int start = lineStart(line);
+		int end = line < lineBreaks()? lineStart(line+1) - 1: length();
+		return Math.min(start + Math.max(character, 0), end);
+	}
+
+	public Rope replace(int start, int end, CharSequence text) {
+		if (start < 0 || end > length() || start > end) {
+			throw new IndexOutOfBoundsException("[" + start + "," + end + ") of " + length());
+		}
+
+		Rope edited = editLeaf(start, end, text.toString());
+		if (edited != null) {
+			return edited;
+		}
+
+		return concat(concat(prefix(start), of(text)), suffix(end));
+	}
+
+	public Rope prefix(int end) {
+		return split(end)[0];
+	}
+
+	public Rope suffix(int start) {
+		return split(start)[1];
+	}
+
+	abstract Rope[] split(int at);
+
+	@Override
+	public Rope subSequence(int start, int end) {
+		return suffix(start).prefix(end - start);
+	}
+
+	/**
+	 * @return a reader that serves characters straight out of the chunks of
+	 *   this rope, without first flattening it into one string
+	 */
+	public Reader reader() {
+		return new Reader() {
+			private int pos = 0;
+			private int mark = 0;
+
+			@Override
+			public int read() {
+				return pos < length()? charAt(pos++): -1;
+			}
+
+			@Override
+			public int read(char[] cbuf, int off, int len) {
+				if (len == 0) {
+					return 0;
+				} else if (pos >= length()) {
+					return -1;
+				} else {
+					int n = Math.min(len, length() - pos);
+					getChars(pos, pos + n, cbuf, off);
+					pos += n;
+					return n;
+				}
+			}
+
+			@Override
+			public long skip(long n) {
+				int skipped = (int) Math.min(Math.max(n, 0), length() - pos);
+				pos += skipped;
+				return skipped;
+			}
+
+			@Override
+			public boolean ready() {
+				return true;
+			}
+
+			@Override
+			public boolean markSupported() {
+				return true;
+			}
+
+			@Override
+			public void mark(int readAheadLimit) {
+				mark = pos;
+			}
+
+			@Override
+			public void reset() {
+				pos = mark;
+			}
+
+			@Override
+			public void close() {
+
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		char[] chars = new char[ length() ];
+		getChars(0, chars.length, chars, 0);
+		return new String(chars);
+	}
+
+	public static Rope concat(Rope left, Rope right) {
+		if (left.length() == 0) {
+			return right;
+		} else if (right.length() == 0) {
+			return left;
+		} else if (left.height() > right.height() + 1) {
+			return joinRight((Node)left, right);
+		} else if (right.height() > left.height() + 1) {
+			return joinLeft(left, (Node)right);
+		} else {
+			return node(left, right);
+		}
+	}
+
+	private static Rope node(Rope left, Rope right) {
+		if (left instanceof Leaf && right instanceof Leaf && left.length() + right.length() <= LEAF_SIZE) {
+			return new Leaf(((Leaf)left).text + ((Leaf)right).text);
+		} else {
+			return new Node(left, right);
+		}
+	}
+
+	private static Rope joinRight(Node left, Rope right) {
+		Rope l = left.left;
+		Rope c = left.right;
+		if (c.height() <= right.height() + 1) {
+			Rope t = node(c, right);
+			if (t.height() <= l.height() + 1) {
+				return node(l, t);
+			} else {
+				return rotateLeft(new Node(l, rotateRight((Node)t)));
+			}
+		} else {
+			Rope t = joinRight((Node)c, right);
+			Rope tt = new Node(l, t);
+			if (t.height() <= l.height() + 1) {
+				return tt;
+			} else {
+				return rotateLeft((Node)tt);
+			}
+		}
+	}
+
+	private static Rope joinLeft(Rope left, Node right) {
+		Rope c = right.left;
+		Rope r = right.right;
+		if (c.height() <= left.height() + 1) {
+			Rope t = node(left, c);
+			if (t.height() <= r.height() + 1) {
+				return node(t, r);
+			} else {
+				return rotateRight(new Node(rotateLeft((Node)t), r));
+			}
+		} else {
+			Rope t = joinLeft(left, (Node)c);
+			Rope tt = new Node(t, r);
+			if (t.height() <= r.height() + 1) {
+				return tt;
+			} else {
+				return rotateRight((Node)tt);
+			}
+		}
+	}
+
+	private static Rope rotateLeft(Node n) {
+		if (! (n.right instanceof Node)) {
+			return n;
+		}
+		Node r = (Node)n.right;
+		return new Node(new Node(n.left, r.left), r.right);
+	}
+
+	private static Rope rotateRight(Node n) {
+		if (! (n.left instanceof Node)) {
+			return n;
+		}
+		Node l = (Node)n.left;
+		return new Node(l.left, new Node(l.right, n.right));
+	}
+
+	private static final class Leaf extends Rope {
+		private final String text;
+		private final int lineBreaks;
+
+		private Leaf(String text) {
+			this.text = text;
+			int breaks = 0;
+			for(int i = 0; i < text.length(); i++) {
+				if (text.charAt(i) == '\n') {
+					breaks++;
+				}
+			}
+			this.lineBreaks = breaks;
+		}
+
+		@Override
+		public int length() {
+			return text.length();
+		}
+
+		@Override
+		public char charAt(int index) {
+			return text.charAt(index);
+		}
+
+		@Override
+		int height() {
+			return 0;
+		}
+
+		@Override
+		int lineBreaks() {
+			return lineBreaks;
+		}
+
+		@Override
+		int afterLineBreak(int k) {
+			for(int i = 0; i < text.length(); i++) {
+				if (text.charAt(i) == '\n' && --k == 0) {
+					return i + 1;
+				}
+			}
+			return text.length();
+		}
+
+		@Override
+		Rope editLeaf(int start, int end, String newText) {
+			if (text.length() - (end - start) + newText.length() > MAX_LEAF_SIZE) {
+				return null;
+			} else {
+				return new Leaf(text.substring(0, start) + newText + text.substring(end));
+			}
+		}
+
+		@Override
+		Rope[] split(int at) {
+			return new Rope[] { new Leaf(text.substring(0, at)), new Leaf(text.substring(at)) };
+		}
+
+		@Override
+		public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+			text.getChars(srcBegin, srcEnd, dst, dstBegin);
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+	}
+
+	private static final class Node extends Rope {
+		private final Rope left;
+		private final Rope right;
+		private final int length;
+		private final int lineBreaks;
+		private final int height;
+
+		private Node(Rope left, Rope right) {
+			this.left = left;
+			this.right = right;
+			this.length = left.length() + right.length();
+			this.lineBreaks = left.lineBreaks() + right.lineBreaks();
+			this.height = Math.max(left.height(), right.height()) + 1;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			Rope r = this;
+			while (r instanceof Node) {
+				Node n = (Node)r;
+				if (index < n.left.length()) {
+					r = n.left;
+				} else {
+					index -= n.left.length();
+					r = n.right;
+				}
+			}
+			return r.charAt(index);
+		}
+
+		@Override
+		int height() {
+			return height;
+		}
+
+		@Override
+		int lineBreaks() {
+			return lineBreaks;
+		}
+
+		@Override
+		int afterLineBreak(int k) {
+			if (k <= left.lineBreaks()) {
+				return left.afterLineBreak(k);
+			} else {
+				return left.length() + right.afterLineBreak(k - left.lineBreaks());
+			}
+		}
+
+		@Override
+		Rope editLeaf(int start, int end, String text) {
+			int mid = left.length();
+			if (end < mid || (end == mid && start < mid)) {
+				Rope l = left.editLeaf(start, end, text);
+				return l == null? null: new Node(l, right);
+			} else if (start >= mid) {
+				Rope r = right.editLeaf(start - mid, end - mid, text);
+				return r == null? null: new Node(left, r);
+			} else {
+				return null;
+			}
+		}
+
+		@Override
+		Rope[] split(int at) {
+			int mid = left.length();
+			if (at == mid) {
+				return new Rope[] { left, right };
+			} else if (at < mid) {
+				Rope[] l = left.split(at);
+				return new Rope[] { l[0], concat(l[1], right) };
+			} else {
+				Rope[] r = right.split(at - mid);
+				return new Rope[] { concat(left, r[0]), r[1] };
+			}
+		}
+
+		@Override
+		public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+			int mid = left.length();
+			if (srcBegin < mid) {
+				int leftEnd = Math.min(srcEnd, mid);
+				left.getChars(srcBegin, leftEnd, dst, dstBegin);
+				dstBegin += leftEnd - srcBegin;
+			}
+			if (srcEnd > mid) {
+				right.getChars(Math.max(srcBegin - mid, 0), srcEnd - mid, dst, dstBegin);
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import com.ibm.wala.cast.tree.CAstSourcePositionMap.Position;
+
+/**
+ * The text of one version of a document, with the offset at which each of
+ * its lines starts, so that the source code of a position is a substring
+ * found without reading or scanning the document again.
+ */
+public class SourceText {
+	private final String text;
+	private final int[] lineStarts;
+
+	public SourceText(CharSequence text) {
+		this.text = text.toString();
+		int lines = 1;
+		for(int i = 0; i < this.text.length(); i++) {
+			if (this.text.charAt(i) == '\n') {
+				lines++;
+			}
+		}
+		lineStarts = new int[lines];
+		for(int i = 0, line = 1; i < this.text.length(); i++) {
+			if (this.text.charAt(i) == '\n') {
+				lineStarts[line++] = i + 1;
+			}
+		}
+	}
+
+	public int lineCount() {
+		return lineStarts.length;
+	}
+
+	/**
+	 * @return the offset of a 1-based line and a column, clamped to the end
+	 *   of that line
+	 */
+	public int offsetOf(int line, int column) {
+		if (line < 1) {
+			return 0;
+		} else if (line > lineStarts.length) {
+			return text.length();
+		}
+		int start = lineStarts[line-1];
+		int end = line < lineStarts.length? lineStarts[line] - 1: text.length();
+		if (end > start && text.charAt(end-1) == '\r') {
+			end--;
+		}
+		return Math.min(start + Math.max(column, 0), end);
+	}
+
+	/**
+	 * @return the source code of the given position, by offsets when it has
+	 *   them and by lines and columns otherwise
+	 */
+	public String snippet(Position pos) {
+		int start, end;
+		if (pos.getFirstOffset() >= 0 && pos.getLastOffset() >= 0) {
+			start = Math.min(pos.getFirstOffset(), text.length());
+			end = Math.min(pos.getLastOffset(), text.length());
+		} else {
+			start = offsetOf(pos.getFirstLine(), pos.getFirstCol());
+			end = offsetOf(pos.getLastLine(), pos.getLastCol());
+		}
+		return start < end? text.substring(start, end): "";
+	}
+}
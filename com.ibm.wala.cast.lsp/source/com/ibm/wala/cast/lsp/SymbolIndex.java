@@ -0,0 +1,191 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.util.collections.HashMapFactory;
+import com.ibm.wala.util.collections.HashSetFactory;
+
+/**
+ * An immutable index of the function symbols of one analysis run.  It maps
+ * each symbol name to the numbers of its call graph nodes and each symbol
+ * start to its symbol, and answers name queries from a sorted name table,
+ * for prefixes, and from trigram posting lists, for substrings.
+ */
+class SymbolIndex {
+	// symbols and their lower case names, sorted by name
+	private final WalaSymbolInformation[] symbols;
+	private final String[] names;
+	// the symbols whose names contain each trigram, ascending
+	private final Map<String, int[]> trigrams;
+	private final Map<String, int[]> nodes;
+	private final Map<String, Map<org.eclipse.lsp4j.Position, WalaSymbolInformation>> starts;
+	private final Map<String, List<WalaSymbolInformation>> documents;
+
+	static SymbolIndex build(Map<String, Map<String, WalaSymbolInformation>> documentSymbols, CallGraph CG) {
+		List<WalaSymbolInformation> all = new LinkedList<>();
+		documentSymbols.values().forEach((s) -> all.addAll(s.values()));
+		WalaSymbolInformation[] symbols = all.toArray(new WalaSymbolInformation[all.size()]);
+		Arrays.sort(symbols, Comparator.comparing((WalaSymbolInformation s) -> s.getName().toLowerCase()));
+		return new SymbolIndex(symbols, documentSymbols, CG);
+	}
+
+	private SymbolIndex(WalaSymbolInformation[] symbols, Map<String, Map<String, WalaSymbolInformation>> documentSymbols, CallGraph CG) {
+		this.symbols = symbols;
+		this.names = new String[symbols.length];
+
+		Map<String, List<Integer>> postings = HashMapFactory.make();
+		Map<String, Set<Integer>> nodeSets = HashMapFactory.make();
+		for(int i = 0; i < symbols.length; i++) {
+			WalaSymbolInformation symbol = symbols[i];
+			names[i] = symbol.getName().toLowerCase();
+
+			Set<String> seen = HashSetFactory.make();
+			for(int j = 0; j + 3 <= names[i].length(); j++) {
+				String t = names[i].substring(j, j+3);
+				if (seen.add(t)) {
+					if (! postings.containsKey(t)) {
+						postings.put(t, new LinkedList<>());
+					}
+					postings.get(t).add(i);
+				}
+			}
+
+			if (! nodeSets.containsKey(symbol.getName())) {
+				nodeSets.put(symbol.getName(), HashSetFactory.make());
+			}
+			if (symbol.getFunction() != null) {
+				for(CGNode n : CG.getNodes(symbol.getFunction())) {
+					nodeSets.get(symbol.getName()).add(CG.getNumber(n));
+				}
+			}
+		}
+
+		Map<String, int[]> trigrams = HashMapFactory.make();
+		postings.forEach((t, ids) -> trigrams.put(t, ids.stream().mapToInt(Integer::intValue).toArray()));
+		this.trigrams = Collections.unmodifiableMap(trigrams);
+
+		Map<String, int[]> nodes = HashMapFactory.make();
+		nodeSets.forEach((name, ns) -> nodes.put(name, ns.stream().mapToInt(Integer::intValue).sorted().toArray()));
+		this.nodes = Collections.unmodifiableMap(nodes);
+
+		Map<String, Map<org.eclipse.lsp4j.Position, WalaSymbolInformation>> starts = HashMapFactory.make();
+		Map<String, List<WalaSymbolInformation>> documents = HashMapFactory.make();
+		documentSymbols.forEach((document, s) -> {
+			Map<org.eclipse.lsp4j.Position, WalaSymbolInformation> byStart = HashMapFactory.make();
+			List<WalaSymbolInformation> inOrder = new LinkedList<>(s.values());
+			for(WalaSymbolInformation symbol : inOrder) {
+				byStart.put(symbol.getLocation().getRange().getStart(), symbol);
+			}
+			inOrder.sort(Comparator
+				.comparingInt((WalaSymbolInformation x) -> x.getLocation().getRange().getStart().getLine())
+				.thenComparingInt((WalaSymbolInformation x) -> x.getLocation().getRange().getStart().getCharacter()));
+			starts.put(document, Collections.unmodifiableMap(byStart));
+			documents.put(document, Collections.unmodifiableList(inOrder));
+		});
+		this.starts = Collections.unmodifiableMap(starts);
+		this.documents = Collections.unmodifiableMap(documents);
+	}
+
+	/**
+	 * @return the symbols whose names contain the query, ignoring case, in
+	 *   order of their names; queries shorter than a trigram match prefixes
+	 */
+	List<WalaSymbolInformation> search(String query) {
+		String q = query.toLowerCase();
+		List<WalaSymbolInformation> result = new LinkedList<>();
+		if (q.length() < 3) {
+			int lo = 0, hi = names.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (names[mid].compareTo(q) < 0) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			for(int i = lo; i < names.length && names[i].startsWith(q); i++) {
+				result.add(symbols[i]);
+			}
+			return result;
+		}
+
+		int[] candidates = null;
+		for(int j = 0; j + 3 <= q.length(); j++) {
+			int[] ids = trigrams.get(q.substring(j, j+3));
+			if (ids == null) {
+				return result;
+			}
+			candidates = candidates == null? ids: intersect(candidates, ids);
+		}
+		for(int i : candidates) {
+			if (names[i].contains(q)) {
+				result.add(symbols[i]);
+			}
+		}
+		return result;
+	}
+
+	private static int[] intersect(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int i = 0, j = 0, size = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[size++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * @return the symbol of the document that starts at start, if any
+	 */
+	WalaSymbolInformation at(String document, org.eclipse.lsp4j.Position start) {
+		Map<org.eclipse.lsp4j.Position, WalaSymbolInformation> byStart = starts.get(document);
+		return byStart == null? null: byStart.get(start);
+	}
+
+	/**
+	 * @return the symbols of a document, in order of their start
+	 */
+	List<WalaSymbolInformation> inDocument(String document) {
+		List<WalaSymbolInformation> result = documents.get(document);
+		return result == null? Collections.emptyList(): result;
+	}
+
+	/**
+	 * @return the numbers of the call graph nodes of the functions with the
+	 *   given name, ascending
+	 */
+	int[] nodes(String name) {
+		int[] result = nodes.get(name);
+		return result == null? new int[0]: result;
+	}
+
+	int size() {
+		return symbols.length;
+	}
+}
@@ -0,0 +1,94 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import com.ibm.wala.cast.tree.CAstSourcePositionMap.Position;
+
+/**
+ * The types the analyses of one run found for each function, by function
+ * name: the types of its parameters, and the types of the values assigned
+ * by its copy statements, with their positions.  Each function is
+ * summarized at most once per run, and the type strings of all summaries
+ * are interned, since the same few types recur throughout a program.
+ */
+class TypeSummaries {
+
+	static class Summary {
+		private final List<String> parameterTypes;
+		private final Position[] assignments;
+		private final String[] assignmentTypes;
+
+		Summary(List<String> parameterTypes, Position[] assignments, String[] assignmentTypes) {
+			this.parameterTypes = Collections.unmodifiableList(parameterTypes);
+			this.assignments = assignments;
+			this.assignmentTypes = assignmentTypes;
+		}
+
+		/**
+		 * @return the distinct types of the parameters of the function
+		 */
+		List<String> getParameterTypes() {
+			return parameterTypes;
+		}
+
+		/**
+		 * @return the parameter types as one comma-separated list, or null
+		 *   if there are none
+		 */
+		String getParameterTypeList() {
+			return parameterTypes.isEmpty()? null: String.join(", ", parameterTypes);
+		}
+
+		/**
+		 * @return the positions of the typed assignments of the function
+		 */
+		List<Position> getAssignments() {
+			return Collections.unmodifiableList(Arrays.asList(assignments));
+		}
+
+		/**
+		 * @return the type of the i-th assignment
+		 */
+		String getAssignmentType(int i) {
+			return assignmentTypes[i];
+		}
+	}
+
+	private final Map<String, Summary> summaries = new ConcurrentHashMap<>();
+	private final Map<String, String> strings = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the summary of the named function, computing it if this is
+	 *   the first time it is needed
+	 */
+	Summary get(String function, Function<String, Summary> summarize) {
+		return summaries.computeIfAbsent(function, summarize);
+	}
+
+	boolean contains(String function) {
+		return summaries.containsKey(function);
+	}
+
+	/**
+	 * @return the one copy of s shared by all summaries of this run
+	 */
+	String intern(String s) {
+		String old = strings.putIfAbsent(s, s);
+		return old == null? s: old;
+	}
+}
@@ -13,6 +13,9 @@ package com.ibm.wala.cast.lsp;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Map;
 
 import com.ibm.wala.util.collections.HashMapFactory;
@@ -22,13 +25,24 @@ public class Util {
 	private static int fake = 0;
 	private static Map<String,String> nameMapping = HashMapFactory.make();
 	private static Map<String,String> nameUnmapping = HashMapFactory.make();
-	public static String mangleUri(String uri) {
+	/**
+	 * @return the name the server uses for what the client calls uri: a
+	 *   file URI in its canonical form, or a made-up file URL for anything
+	 *   that is not a URL
+	 */
+	public static synchronized String mangleUri(String uri) {
 			try {
 				if (nameMapping.containsKey(uri)) {
 					return nameMapping.get(uri);
 				} else {
-					new URI(uri).toURL();
-					return uri;
+					URI parsed = new URI(uri);
+					parsed.toURL();
+					String canonical = canonicalUri(parsed);
+					if (! canonical.equals(uri)) {
+						nameMapping.put(uri, canonical);
+						nameUnmapping.putIfAbsent(canonical, uri);
+					}
+					return canonical;
 				}
 			} catch (MalformedURLException | URISyntaxException | IllegalArgumentException e) {
 				String x = "file://fake" + (fake++);
@@ -37,8 +51,27 @@ public class Util {
 				return x;
 			}
 	}
-	public static String unmangleUri(String uri) {
+	public static synchronized String unmangleUri(String uri) {
 		return (nameUnmapping.containsKey(uri))? nameUnmapping.get(uri): uri;
 	}
 
+	/**
+	 * @return the URI by which the server knows a file, whether the client
+	 *   named it or it was found on disk
+	 */
+	public static String canonicalUri(Path path) {
+		return path.toAbsolutePath().normalize().toUri().toString();
+	}
+
+	private static String canonicalUri(URI uri) {
+		if ("file".equalsIgnoreCase(uri.getScheme())) {
+			try {
+				return canonicalUri(Paths.get(uri));
+			} catch (IllegalArgumentException | FileSystemNotFoundException e) {
+				// not a path of this file system, so leave it alone
+			}
+		}
+		return uri.toString();
+	}
+
 }
@@ -26,20 +26,20 @@ import java.net.URL;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Map.Entry;
-import java.util.NavigableMap;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
 import java.util.function.Function;
-import java.util.function.IntSupplier;
 import java.util.stream.Collectors;
 
 import org.apache.commons.io.input.TeeInputStream;
@@ -57,7 +57,6 @@ import org.eclipse.lsp4j.CompletionList;
 import org.eclipse.lsp4j.CompletionParams;
 import org.eclipse.lsp4j.Diagnostic;
 import org.eclipse.lsp4j.DiagnosticRelatedInformation;
-import org.eclipse.lsp4j.DiagnosticSeverity;
 import org.eclipse.lsp4j.DidChangeConfigurationParams;
 import org.eclipse.lsp4j.DidChangeTextDocumentParams;
 import org.eclipse.lsp4j.DidChangeWatchedFilesParams;
@@ -83,7 +82,6 @@ import org.eclipse.lsp4j.MarkupContent;
 import org.eclipse.lsp4j.MarkupKind;
 import org.eclipse.lsp4j.MessageParams;
 import org.eclipse.lsp4j.MessageType;
-import org.eclipse.lsp4j.PublishDiagnosticsParams;
 import org.eclipse.lsp4j.Range;
 import org.eclipse.lsp4j.ReferenceParams;
 import org.eclipse.lsp4j.RenameParams;
@@ -107,6 +105,7 @@ import org.eclipse.lsp4j.services.LanguageClient;
 import org.eclipse.lsp4j.services.TextDocumentService;
 import org.eclipse.lsp4j.services.WorkspaceService;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import com.ibm.wala.analysis.pointers.HeapGraph;
@@ -117,18 +116,14 @@ import com.ibm.wala.cast.loader.AstFunctionClass;
 import com.ibm.wala.cast.loader.AstMethod;
 import com.ibm.wala.cast.loader.AstMethod.DebuggingInformation;
 import com.ibm.wala.cast.tree.CAstSourcePositionMap.Position;
-import com.ibm.wala.cast.types.AstMethodReference;
 import com.ibm.wala.cast.util.SourceBuffer;
-import com.ibm.wala.classLoader.CallSiteReference;
 import com.ibm.wala.classLoader.IClass;
-import com.ibm.wala.classLoader.IClassLoader;
 import com.ibm.wala.classLoader.IMethod;
 import com.ibm.wala.classLoader.Module;
 import com.ibm.wala.client.AbstractAnalysisEngine;
 import com.ibm.wala.ipa.callgraph.CGNode;
 import com.ibm.wala.ipa.callgraph.CallGraph;
 import com.ibm.wala.ipa.callgraph.propagation.HeapModel;
-import com.ibm.wala.ipa.callgraph.propagation.InstanceFieldKey;
 import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
 import com.ibm.wala.ipa.callgraph.propagation.LocalPointerKey;
 import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
@@ -136,36 +131,108 @@ import com.ibm.wala.ipa.callgraph.propagation.PropagationCallGraphBuilder;
 import com.ibm.wala.ipa.slicer.NormalStatement;
 import com.ibm.wala.ipa.slicer.ParamCallee;
 import com.ibm.wala.ipa.slicer.ParamCaller;
-import com.ibm.wala.ipa.slicer.SDG;
-import com.ibm.wala.ipa.slicer.Slicer;
-import com.ibm.wala.ipa.slicer.Slicer.ControlDependenceOptions;
-import com.ibm.wala.ipa.slicer.Slicer.DataDependenceOptions;
 import com.ibm.wala.ipa.slicer.Statement;
 import com.ibm.wala.ssa.DefUse;
-import com.ibm.wala.ssa.IR;
 import com.ibm.wala.ssa.SSAAbstractInvokeInstruction;
 import com.ibm.wala.ssa.SSAInstruction;
-import com.ibm.wala.types.MethodReference;
-import com.ibm.wala.types.TypeReference;
 import com.ibm.wala.util.CancelException;
+import com.ibm.wala.util.MonitorUtil;
+import com.ibm.wala.util.MonitorUtil.IProgressMonitor;
 import com.ibm.wala.core.util.CancelRuntimeException;
 import com.ibm.wala.util.collections.HashMapFactory;
 import com.ibm.wala.util.collections.HashSetFactory;
 import com.ibm.wala.util.collections.Pair;
 
 public class WALAServer extends WALAServerCore {
-	private final Map<URL, NavigableMap<Position,PointerKey>> values = HashMapFactory.make();
-	private final Map<URL, NavigableMap<Position,int[]>> instructions = HashMapFactory.make();
-
 	private final Function<String, AbstractAnalysisEngine<InstanceKey, ? extends PropagationCallGraphBuilder, ?>> languages;
 
-	private final Map<String, CallGraph> languageBuilders = HashMapFactory.make();
+	// the latest complete analysis of each language; replaced wholesale, never modified
+	private volatile Map<String, AnalysisSnapshot> snapshots = Collections.emptyMap();
+
+	// the analysis being built by the current thread, if any
+	private final ThreadLocal<AnalysisRun> currentRun = new ThreadLocal<>();
+
+	// line tables of document versions, keyed by the identity of their text
+	private final LRUCache<Rope, SourceText> sourceTexts = new LRUCache<>(64);
+	private final LRUCache<Pair<SourceText, Position>, String> snippets = new LRUCache<>(4096);
+
+	/**
+	 * What a hover shows depends only on the snapshot, the ranges the cursor
+	 * resolves to in it, and the markup, so hovers anywhere within the same
+	 * ranges share one cache entry.  The snapshot is held by its id, so an
+	 * entry never keeps a replaced snapshot alive.
+	 */
+	private static final class HoverKey {
+		private final long snapshot;
+		private final URL document;
+		private final Position value;
+		private final Position instruction;
+		private final boolean useMarkdown;
+
+		private HoverKey(long snapshot, URL document, Position value, Position instruction, boolean useMarkdown) {
+			this.snapshot = snapshot;
+			this.document = document;
+			this.value = value;
+			this.instruction = instruction;
+			this.useMarkdown = useMarkdown;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(snapshot, document, value, instruction, useMarkdown);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof HoverKey)) {
+				return false;
+			}
+			HoverKey other = (HoverKey) obj;
+			return snapshot == other.snapshot &&
+					useMarkdown == other.useMarkdown &&
+					Objects.equals(document, other.document) &&
+					Objects.equals(value, other.value) &&
+					Objects.equals(instruction, other.instruction);
+		}
+	}
+
+	private final LRUCache<HoverKey, String> hoverCache = new LRUCache<>(1024);
+
+	private volatile ForkJoinPool slicingPool = ForkJoinPool.commonPool();
 
-	private final Map<String, Map<String, WalaSymbolInformation>> documentSymbols = HashMapFactory.make();
+	// results of earlier runs by document, to answer from before a document is analyzed; off unless set
+	private volatile AnalysisCache analysisCache = null;
 
-	private final Set<Pair<String, BiFunction<Boolean, PointerKey,String>>> valueAnalyses = HashSetFactory.make();
-	private final Map<String, Map<PointerKey,AnalysisError>> valueErrors = HashMapFactory.make();
-	private final Set<Pair<String,BiFunction<Boolean,int[],String>>> instructionAnalyses = HashSetFactory.make();
+	// bumped whenever a setting that analysis results depend on changes, so
+	// a snapshot can tell whether it is still what a new run would produce
+	private final AtomicLong configuration = new AtomicLong();
+
+	// adds related information to published diagnostics, when nothing more urgent is running
+	private final ExecutorService enrichment = Executors.newSingleThreadExecutor((r) -> {
+		Thread t = new Thread(r, "WALA related information");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		return t;
+	});
+	// the runs whose related information is being computed, by language
+	private final Map<String, AnalysisMonitor> enrichments = new ConcurrentHashMap<>();
+	private volatile BatchSlicer.Mode sliceMode = BatchSlicer.Mode.FULL;
+	private volatile BatchSlicer.Budget sliceBudget = BatchSlicer.Budget.DEFAULT;
+
+	// the title of a code lens that no longer has a type when the editor resolves it
+	private static final String NO_TYPE = "no type";
+
+	private volatile int heapDepth = HeapRenderer.DEFAULT_MAX_DEPTH;
+	private volatile int heapWidth = HeapRenderer.DEFAULT_MAX_WIDTH;
+	private volatile int heapNodes = HeapRenderer.DEFAULT_MAX_NODES;
+
+	// shared by the analysis lanes of all languages
+	private final Set<Pair<String, BiFunction<Boolean, PointerKey,String>>> valueAnalyses = ConcurrentHashMap.newKeySet();
+	// positions recorded outside of any run
+	private final Map<URL, PositionIndex.Builder<PointerKey>> values = HashMapFactory.make();
+	private final Map<URL, PositionIndex.Builder<int[]>> instructions = HashMapFactory.make();
+	private final Map<String, Map<PointerKey,AnalysisError>> valueErrors = new ConcurrentHashMap<>();
+	private final Set<Pair<String,BiFunction<Boolean,int[],String>>> instructionAnalyses = ConcurrentHashMap.newKeySet();
 
 	private Function<int[],Set<Position>> findDefinitionAnalysis = null;
 	
@@ -201,121 +268,386 @@ public class WALAServer extends WALAServerCore {
 		return formats.get(0);
 	}
 
-	private <X> NavigableMap<Position, X> ensureUrlEntry(URL url, Map<URL, NavigableMap<Position, X>> map) {
-		if (! map.containsKey(url)) {
-			NavigableMap<Position, X> v = new TreeMap<Position,X>(new Comparator<Position>() {
-				private int check(int v1, int v2, IntSupplier otherwise) {
-					if (v1 != v2) {
-						return v1 - v2;
-					} else {
-						return otherwise==null? 0: otherwise.getAsInt();
-					}
-				}
+	/**
+	 * The state of an analysis run while it is being built.  Analyses that
+	 * engines register during a run belong to that run only, since they
+	 * refer to its call graph and heap; analyses registered outside of any
+	 * run are shared by all of them.
+	 */
+	private class AnalysisRun {
+		private final Map<URL, PositionIndex.Builder<PointerKey>> values = HashMapFactory.make();
+		private final Map<URL, PositionIndex.Builder<int[]>> instructions = HashMapFactory.make();
+		private final Map<String, Map<String, WalaSymbolInformation>> documentSymbols = HashMapFactory.make();
+		private final Set<Pair<String, BiFunction<Boolean, PointerKey,String>>> valueAnalyses = freshValueAnalyses();
+		private final Set<Pair<String,BiFunction<Boolean,int[],String>>> instructionAnalyses = HashSetFactory.make(WALAServer.this.instructionAnalyses);
+		private Map<PointerKey,AnalysisError> valueErrors = null;
+		private Function<int[],Set<Position>> findDefinitionAnalysis = WALAServer.this.findDefinitionAnalysis;
+		// the text of each in-memory source, as the run read it
+		private final Map<URL, Rope> texts = HashMapFactory.make();
+	}
 
-				@Override
-				public int compare(Position o1, Position o2) {
-					return 
-							check(o1.getFirstLine(), o2.getFirstLine(),
-									() -> { return check(o1.getFirstCol(), o2.getFirstCol(),
-											() -> { return check(o1.getLastLine(), o2.getLastLine(),
-													() -> { return check(o1.getLastCol(), o2.getLastCol(), null); }); }); });
-				} 
-			});
+	/**
+	 * @return the shared value analyses, with heap renderers that memoize
+	 *   nothing from earlier snapshots
+	 */
+	private Set<Pair<String, BiFunction<Boolean, PointerKey,String>>> freshValueAnalyses() {
+		Set<Pair<String, BiFunction<Boolean, PointerKey,String>>> result = HashSetFactory.make();
+		for(Pair<String, BiFunction<Boolean, PointerKey,String>> a : valueAnalyses) {
+			result.add(a.snd instanceof HeapRenderer? Pair.make(a.fst, ((HeapRenderer) a.snd).fresh()): a);
+		}
+		return result;
+	}
 
-			map.put(url, v);
-			return v;
-		} else {
-			return map.get(url);
+	private AnalysisRun run() {
+		AnalysisRun run = currentRun.get();
+		if (run == null) {
+			throw new IllegalStateException("no analysis is running on " + Thread.currentThread());
 		}
+		return run;
 	}
 
+	/**
+	 * Record the value at a position.  During an analysis run, as when an
+	 * engine calls this from its analysis, the value belongs to that run
+	 * only; otherwise it is shared, and every later run adds it to the
+	 * documents it analyzes, with its own values taking precedence.
+	 */
 	public void add(Position p, PointerKey v) {
-		URL url = p.getURL();
-		ensureUrlEntry(url, values).put(p, v);
+		add(p, v, (run) -> run.values, values);
 	}
 
+	/**
+	 * Record the call graph node number and instruction index at a
+	 * position; as for values, outside of a run it is shared by later runs.
+	 */
 	public void add(Position p, int[] v) {
+		add(p, v, (run) -> run.instructions, instructions);
+	}
+
+	private <T> void add(Position p, T v, Function<AnalysisRun, Map<URL, PositionIndex.Builder<T>>> ofRun, Map<URL, PositionIndex.Builder<T>> shared) {
 		URL url = p.getURL();
-		ensureUrlEntry(url, instructions).put(p, v);
-	}
-
-
-	private String traverse(
-			HeapGraph<InstanceKey> H, 
-			BiFunction<Boolean,PointerKey,String> analysis,
-			//		Collector<Pair<IField,R>, A, R> collector,
-			Boolean useMarkdown,
-			PointerKey ptr) {
-		String mine = analysis.apply(useMarkdown, ptr);
-		if (mine != null) {
-			return mine;
-		} else if (H.containsNode(ptr)) {
-			Map<String, String> entries = new LinkedHashMap<String, String>();
-			for(Iterator<?> Is = H.getSuccNodes(ptr); Is.hasNext(); ) {
-				for(Iterator<?> fields = H.getSuccNodes(Is.next()); fields.hasNext(); ) {
-					Object f = fields.next();
-					if (f instanceof InstanceFieldKey) {
-						InstanceFieldKey field = (InstanceFieldKey) f;
-						String sub = traverse(H, analysis, useMarkdown, field);
-						if (sub != null) {
-							entries.putIfAbsent(field.getField().getName().toString(), sub);
-						}
-					}
+		AnalysisRun run = currentRun.get();
+		if (run != null) {
+			ofRun.apply(run).computeIfAbsent(url, (u) -> new PositionIndex.Builder<>()).put(p, v);
+		} else {
+			synchronized (shared) {
+				shared.computeIfAbsent(url, (u) -> new PositionIndex.Builder<>()).put(p, v);
+			}
+			configurationChanged();
+		}
+	}
+
+	/**
+	 * @return the indexes of the documents a run analyzed, including what
+	 *   was shared with it
+	 */
+	private static <T> Map<URL, PositionIndex<T>> build(Map<URL, PositionIndex.Builder<T>> ofRun, Map<URL, PositionIndex.Builder<T>> shared) {
+		Map<URL, PositionIndex.Builder<T>> builders = HashMapFactory.make();
+		synchronized (shared) {
+			ofRun.forEach((url, builder) -> {
+				PositionIndex.Builder<T> merged = new PositionIndex.Builder<>();
+				if (shared.containsKey(url)) {
+					merged.putAll(shared.get(url));
 				}
+				merged.putAll(builder);
+				builders.put(url, merged);
+			});
+		}
+		return PositionIndex.build(builders);
+	}
+
+	private synchronized void publish(AnalysisSnapshot snapshot) {
+		Map<String, AnalysisSnapshot> next = HashMapFactory.make(snapshots);
+		AnalysisSnapshot previous = next.put(snapshot.getLanguage(), snapshot);
+		snapshots = Collections.unmodifiableMap(next);
+		if (previous != null) {
+			hoverCache.removeIf((key) -> key.snapshot == previous.getId());
+		}
+	}
+
+	/**
+	 * @return the snapshot that has analysis results for the given script, if any
+	 */
+	private AnalysisSnapshot snapshotFor(URL url) {
+		for(AnalysisSnapshot snapshot : snapshots.values()) {
+			if (snapshot.getValues().containsKey(url) || snapshot.getInstructions().containsKey(url)) {
+				return snapshot;
 			}
-			if(entries.isEmpty()) {
-				return null;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the source code of a position; sources the editor holds in
+	 *   memory and workspace files the analysis read are taken from the
+	 *   text the analysis saw, without any I/O
+	 */
+	private String sourceCode(Map<URL, Rope> texts, Position pos) throws IOException {
+		Rope text = texts.get(pos.getURL());
+		if (text == null) {
+			return new SourceBuffer(pos).toString();
+		}
+		SourceText source = sourceTexts.computeIfAbsent(text, SourceText::new);
+		return snippets.computeIfAbsent(Pair.make(source, pos), (p) -> source.snippet(pos));
+	}
+
+	/**
+	 * @return the statement defining the value at pos, from which its
+	 *   related information is sliced, if there is one
+	 */
+	private static Statement sliceSeed(Map<URL, PositionIndex<PointerKey>> values, Position pos) {
+		PositionIndex<PointerKey> index = values.get(pos.getURL());
+		PointerKey messageVal = index == null? null: index.get(pos);
+		if (messageVal instanceof LocalPointerKey) {
+			LocalPointerKey lpk = (LocalPointerKey)messageVal;
+			CGNode node = lpk.getNode();
+			SSAInstruction def = node.getDU().getDef(lpk.getValueNumber());
+			if (def != null) {
+				return new NormalStatement(node, def.iIndex());
 			}
-			final String contents = entries.entrySet().stream()
-					.map((Entry<String,String> entry) -> (useMarkdown ? ("_" + entry.getKey() + "_") : entry.getKey()) + ": " + entry.getValue())
-					.collect(Collectors.joining(","+newline(useMarkdown)));
-			return "{" + contents + "}";
-		} else {
+		}
+		return null;
+	}
+
+	private void configurationChanged() {
+		configuration.incrementAndGet();
+		invalidateAnalyses();
+	}
+
+	/**
+	 * Choose how the related information of diagnostics is sliced, and how
+	 * much work the slice of each diagnostic may take.
+	 */
+	public void setSlicing(BatchSlicer.Mode mode, BatchSlicer.Budget budget) {
+		this.sliceMode = mode;
+		this.sliceBudget = budget;
+		configurationChanged();
+	}
+
+	/**
+	 * Set the pool on which the slices for related information are computed.
+	 */
+	public void setSlicingPool(ForkJoinPool pool) {
+		this.slicingPool = pool;
+	}
+
+	/**
+	 * Keep the results of each document in directory, so that a restarted
+	 * server can answer requests about unchanged documents while it is
+	 * analyzing them again.
+	 */
+	public void setAnalysisCache(File directory) {
+		setAnalysisCache(directory == null? null: new AnalysisCache(directory));
+	}
+
+	/**
+	 * Use cache for the results of each document; entries that have grown
+	 * too old or too many are pruned in the background.
+	 */
+	public void setAnalysisCache(AnalysisCache cache) {
+		this.analysisCache = cache;
+		if (cache != null) {
+			enrichment.execute(cache::prune);
+		}
+	}
+
+	/**
+	 * @return the settings that what is cached for the documents of a
+	 *   language depends on, in a form that is stable across restarts; the
+	 *   slicing settings only affect related information, which is not cached
+	 */
+	private String configurationKey(String language) {
+		List<String> analyses = new LinkedList<>();
+		valueAnalyses.forEach((a) -> analyses.add("value " + a.fst));
+		instructionAnalyses.forEach((a) -> analyses.add("instruction " + a.fst));
+		Collections.sort(analyses);
+		return language + " " + heapDepth + " " + heapWidth + " " + heapNodes + " " + (findDefinitionAnalysis != null) + " " + analyses;
+	}
+
+	/**
+	 * @return the cached results of a document that no published snapshot
+	 *   has analyzed, if the cache has any for its current contents
+	 */
+	private AnalysisCache.Entry cachedEntry(String document) {
+		AnalysisCache cache = analysisCache;
+		if (cache == null) {
 			return null;
 		}
-	};
+		for(AnalysisSnapshot snapshot : snapshots.values()) {
+			if (snapshot.getDigests().containsKey(document)) {
+				return null;
+			}
+		}
+		for(Map.Entry<String, Map<String, Module>> sources : languageSources.entrySet()) {
+			Module module = sources.getValue().get(document);
+			if (module != null) {
+				return cache.load(AnalysisCache.key(digest(module), configurationKey(sources.getKey())));
+			}
+		}
+		return null;
+	}
 
-	public void addValueErrors(String language, Map<PointerKey,AnalysisError> errors) {
-		valueErrors.put(language, errors);
+	/**
+	 * write the results of the documents of a published snapshot that have
+	 * no entry in the cache yet: their symbols, diagnostics and resolved
+	 * code lenses, and the hovers rendered in the snapshot so far
+	 */
+	private void storeResults(AnalysisSnapshot snapshot) {
+		AnalysisCache cache = analysisCache;
+		if (cache == null || snapshot.getConfiguration() != configuration.get()) {
+			return;
+		}
+		String config = configurationKey(snapshot.getLanguage());
+		Map<URL, List<Pair<HoverKey, String>>> hovers = renderedHovers(snapshot);
+		snapshot.getDigests().forEach((document, digest) -> {
+			String key = AnalysisCache.key(digest, config);
+			if (!ModuleDigest.isUnreadable(digest) && !cache.contains(key)) {
+				cache.store(key, entry(snapshot, document, hovers));
+			}
+		});
 	}
 
-	public void addValueAnalysis(String name, HeapGraph<InstanceKey> H, BiFunction<Boolean, PointerKey,String> analysis) {
-		valueAnalyses.add(Pair.make(name, (Boolean format, PointerKey key) -> traverse(H, analysis, format, key)));
+	/**
+	 * add the hovers rendered in a published snapshot to the entries of
+	 * their documents, so the next start of the server has them as well
+	 */
+	private void storeHovers(AnalysisSnapshot snapshot) {
+		AnalysisCache cache = analysisCache;
+		if (cache == null || snapshot.getConfiguration() != configuration.get()) {
+			return;
+		}
+		String config = configurationKey(snapshot.getLanguage());
+		Map<URL, List<Pair<HoverKey, String>>> hovers = renderedHovers(snapshot);
+		snapshot.getDigests().forEach((document, digest) -> {
+			if (ModuleDigest.isUnreadable(digest) || !hovers.containsKey(url(document))) {
+				return;
+			}
+			String key = AnalysisCache.key(digest, config);
+			AnalysisCache.Entry stored = cache.load(key);
+			if (stored == null) {
+				cache.store(key, entry(snapshot, document, hovers));
+			} else {
+				AnalysisCache.Entry rendered = new AnalysisCache.Entry(Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+				addHovers(rendered, document, hovers);
+				cache.store(key, stored.withHovers(rendered));
+			}
+		});
 	}
 
-	public void addInstructionAnalysis(String name, BiFunction<Boolean, int[],String> analysis) {
-		instructionAnalyses.add(Pair.make(name, analysis));
+	private Map<URL, List<Pair<HoverKey, String>>> renderedHovers(AnalysisSnapshot snapshot) {
+		Map<URL, List<Pair<HoverKey, String>>> hovers = HashMapFactory.make();
+		hoverCache.forEach((key, text) -> {
+			if (key.snapshot == snapshot.getId()) {
+				hovers.computeIfAbsent(key.document, (d) -> new LinkedList<>()).add(Pair.make(key, text));
+			}
+		});
+		return hovers;
 	}
 
-	public void setFindDefinitionAnalysis(Function<int[],Set<Position>> analysis) {
-		this.findDefinitionAnalysis = analysis;
+	private static URL url(String document) {
+		try {
+			return new URI(document).toURL();
+		} catch (MalformedURLException | URISyntaxException | IllegalArgumentException e) {
+			return null;
+		}
 	}
 
-	public PointerKey getValue(Position p) {
-		NavigableMap<Position, PointerKey> m = values.get(p.getURL());
-		if (m.containsKey(p)) {
-			return m.get(p);
+	private AnalysisCache.Entry entry(AnalysisSnapshot snapshot, String document, Map<URL, List<Pair<HoverKey, String>>> hovers) {
+		List<CodeLens> lenses = new LinkedList<>();
+		for(CodeLens lens : snapshot.getCodeLenses().getOrDefault(document, Collections.emptyList())) {
+			CodeLens resolved = resolve(snapshot, lens);
+			if (resolved != null) {
+				lenses.add(resolved);
+			}
+		}
+		AnalysisCache.Entry entry = new AnalysisCache.Entry(
+			new LinkedList<>(snapshot.getSymbols().inDocument(document)),
+			snapshot.getDiagnostics().getOrDefault(Util.unmangleUri(document), Collections.emptyList()),
+			lenses);
+		addHovers(entry, document, hovers);
+		return entry;
+	}
+
+	private void addHovers(AnalysisCache.Entry entry, String document, Map<URL, List<Pair<HoverKey, String>>> hovers) {
+		URL url = url(document);
+		for(Pair<HoverKey, String> hover : url == null? Collections.<Pair<HoverKey, String>>emptyList(): hovers.getOrDefault(url, Collections.emptyList())) {
+			Position range = hover.fst.value != null? hover.fst.value: hover.fst.instruction;
+			if (range != null) {
+				entry.addHover(locationFromWALA(range).getRange(), hover.fst.useMarkdown, hover.snd);
+			}
+		}
+	}
+
+	private Collection<WalaSymbolInformation> documentSymbols(String document) {
+		List<WalaSymbolInformation> result = new LinkedList<>();
+		for(AnalysisSnapshot snapshot : snapshots.values()) {
+			result.addAll(snapshot.getSymbols().inDocument(document));
+		}
+		return result;
+	}
+
+
+	public void addValueErrors(String language, Map<PointerKey,AnalysisError> errors) {
+		AnalysisRun run = currentRun.get();
+		if (run != null) {
+			run.valueErrors = errors;
 		} else {
-			return m.lowerEntry(p).getValue();
+			valueErrors.put(language, errors);
+			configurationChanged();
 		}
 	}
 
-	private class WalaSymbolInformation extends SymbolInformation {
-		private final MethodReference function;
-		private final Position namePosition;
-		
-		private WalaSymbolInformation(MethodReference function, Position namePosition) {
-			this.function = function;
-			this.namePosition = namePosition;
+	/**
+	 * Register an analysis of values; where it has nothing to say about a
+	 * value, the fields of the objects the value may point to in H are shown
+	 * instead, within the current heap rendering budget.
+	 */
+	public void addValueAnalysis(String name, HeapGraph<InstanceKey> H, BiFunction<Boolean, PointerKey,String> analysis) {
+		AnalysisRun run = currentRun.get();
+		(run != null? run.valueAnalyses: valueAnalyses).add(Pair.make(name, new HeapRenderer(H, analysis, heapDepth, heapWidth, heapNodes)));
+		if (run == null) {
+			configurationChanged();
+		}
+	}
+
+	/**
+	 * Limit how deep, how many fields per object, and how many pointers in
+	 * all, values are rendered through the heap by analyses registered from
+	 * now on.
+	 */
+	public void setHeapRenderingBudget(int maxDepth, int maxWidth, int maxNodes) {
+		this.heapDepth = maxDepth;
+		this.heapWidth = maxWidth;
+		this.heapNodes = maxNodes;
+		configurationChanged();
+	}
+
+	public void addInstructionAnalysis(String name, BiFunction<Boolean, int[],String> analysis) {
+		AnalysisRun run = currentRun.get();
+		(run != null? run.instructionAnalyses: instructionAnalyses).add(Pair.make(name, analysis));
+		if (run == null) {
+			configurationChanged();
 		}
+	}
 
-		private MethodReference getFunction() {
-			return function;
-		}	
+	public void setFindDefinitionAnalysis(Function<int[],Set<Position>> analysis) {
+		AnalysisRun run = currentRun.get();
+		if (run != null) {
+			run.findDefinitionAnalysis = analysis;
+		} else {
+			this.findDefinitionAnalysis = analysis;
+			configurationChanged();
+		}
+	}
 
-		public String toString() {
-			return super.toString() + "(" + getFunction() + ")";
+	public PointerKey getValue(Position p) {
+		AnalysisSnapshot snapshot = snapshotFor(p.getURL());
+		if (snapshot == null || !snapshot.getValues().containsKey(p.getURL())) {
+			return null;
 		}
+		PositionIndex<PointerKey> m = snapshot.getValues().get(p.getURL());
+		PointerKey exact = m.get(p);
+		return exact != null? exact: m.nearestValue(p);
 	}
 
 	public static Map<String, List<Diagnostic>> getDiagnostics(Function<WALAServer, 
@@ -331,23 +663,57 @@ public class WALAServer extends WALAServerCore {
 			}
 		}
 
-		Map<String, List<Diagnostic>> diags = server.calculateDiagnostics(language);
-		return diags;
+		AnalysisSnapshot snapshot = server.buildSnapshot(language, null);
+		return snapshot == null? null: snapshot.getDiagnostics();
 	}
 
 	public void analyze(String language) {
-		Map<String, List<Diagnostic>> diags = calculateDiagnostics(language);
-		for(Map.Entry<String,List<Diagnostic>> d : diags.entrySet()) {
-			PublishDiagnosticsParams pdp = new PublishDiagnosticsParams();
-			if (d.getValue() != null && !d.getValue().isEmpty()) {
-				pdp.setUri(Util.unmangleUri(d.getKey()));
-				pdp.setDiagnostics(d.getValue());
-				client.publishDiagnostics(pdp);
+		AnalysisMonitor monitor = startAnalysis(language);
+		try {
+			AnalysisSnapshot published = snapshots.get(language);
+			if (published != null && isAnalyzed(language)) {
+				// the published snapshot is still an analysis of exactly these sources
+				republishDiagnostics(language);
+				if (supportsRelatedInformation() && !published.hasRelatedInformation() && !enrichments.containsKey(language)) {
+					enrichments.put(language, monitor);
+					enrichment.execute(() -> addRelatedInformation(published, monitor));
+				}
+				return;
+			}
+
+			AnalysisMonitor previous = enrichments.get(language);
+			if (previous != null) {
+				// about to be superseded anyway
+				previous.cancel();
 			}
+			AnalysisSnapshot snapshot = buildSnapshot(language, monitor);
+			if (snapshot == null || !isCurrent(monitor)) {
+				// the sources changed under this run, so its results describe text that no longer exists
+				return;
+			}
+			publish(snapshot);
+			publishDiagnostics(language, snapshot.getDiagnostics(), Util::unmangleUri);
+			analyzed(monitor);
+			if (supportsRelatedInformation()) {
+				enrichments.put(language, monitor);
+				enrichment.execute(() -> addRelatedInformation(snapshot, monitor));
+			}
+			enrichment.execute(() -> storeResults(snapshot));
+		} finally {
+			endAnalysis(monitor);
 		}
 	}
 
-	private Map<String, List<Diagnostic>> calculateDiagnostics(String language) {
+	/**
+	 * Analyze the current sources of a language.  The results are collected
+	 * into a new snapshot, which the caller may then publish.
+	 * 
+	 * @return the new snapshot, or null if the analysis was canceled
+	 */
+	private AnalysisSnapshot buildSnapshot(String language, IProgressMonitor monitor) {
+		long configuration = this.configuration.get();
+		AnalysisRun run = new AnalysisRun();
+		currentRun.set(run);
 		try {
 			if (valueErrors.containsKey(language)) {
 				valueErrors.get(language).clear();
@@ -355,23 +721,22 @@ public class WALAServer extends WALAServerCore {
 
 			AbstractAnalysisEngine<InstanceKey, ? extends PropagationCallGraphBuilder, ?> engine = languages.apply(language);
 
-			engine.setModuleFiles(languageSources.get(language).values());
+			Collection<Module> sources = getSources(language);
+			Map<String, String> digests = ModuleDigest.of(sources);
+			for(Module source : sources) {
+				if (source instanceof LSPStringModule) {
+					run.texts.put(((LSPStringModule)source).getURL(), ((LSPStringModule)source).getSnapshot());
+				} else if (source instanceof FileModule) {
+					run.texts.put(((FileModule)source).getURL(), ((FileModule)source).getText());
+				}
+			}
+			engine.setModuleFiles(sources);
 			
 			PropagationCallGraphBuilder cgBuilder = (PropagationCallGraphBuilder) engine.defaultCallGraphBuilder();
-			CallGraph CG = cgBuilder.makeCallGraph(cgBuilder.getOptions());
+			CallGraph CG = cgBuilder.makeCallGraph(cgBuilder.getOptions(), monitor);
+			MonitorUtil.throwExceptionIfCanceled(monitor);
 			HeapModel H = cgBuilder.getPointerAnalysis().getHeapModel();
 
-			CG.iterator().forEachRemaining((CGNode n) -> { 
-				IMethod m = n.getMethod();
-				if (m instanceof AstMethod) {
-					URL url = ((AstMethod)m).debugInfo().getCodeBodyPosition().getURL();
-					if (values.containsKey(url)) {
-						values.get(url).clear();
-						instructions.get(url).clear();
-					}
-				}
-			});
-
 			for(IClass cls : CG.getClassHierarchy()) {
 				if (cls instanceof AstFunctionClass) {
 					AstMethod code = ((AstFunctionClass)cls).getCodeBody();
@@ -389,10 +754,10 @@ public class WALAServer extends WALAServerCore {
 							codeSymbol.setDeprecated(false);
 							
 							final String document = documentURI.toString();
-							if (! documentSymbols.containsKey(document)) {
-								documentSymbols.put(document, HashMapFactory.make());
+							if (! run.documentSymbols.containsKey(document)) {
+								run.documentSymbols.put(document, HashMapFactory.make());
 							}
-							documentSymbols.get(document).put(cls.getName().toString(), codeSymbol);
+							run.documentSymbols.get(document).put(cls.getName().toString(), codeSymbol);
 						}
 					}
 				}
@@ -438,178 +803,274 @@ public class WALAServer extends WALAServerCore {
 			});
 
 			engine.performAnalysis(cgBuilder);
+			MonitorUtil.throwExceptionIfCanceled(monitor);
 
-			languageBuilders.put(language, CG);
+			Map<PointerKey, AnalysisError> errorsOfRun = run.valueErrors != null? run.valueErrors: valueErrors.get(language);
+			if (errorsOfRun == null) {
+				errorsOfRun = Collections.emptyMap();
+			}
 
-			Map<String, List<Diagnostic>> diags = HashMapFactory.make();
-			errors: for(AnalysisError e : valueErrors.get(language).values()) {
-				Diagnostic d = new Diagnostic();
-				// Diagnostics do not currently support markdown
-				d.setMessage(e.toString(false));
-				
-				Position pos = e.position();
-				d.setRange(locationFromWALA(pos).getRange());
-			
-				d.setSource(e.source());
-				d.setSeverity(e.severity());
-				
-				if (supportsRelatedInformation()) {
-					Set<DiagnosticRelatedInformation> relList = HashSetFactory.make();
-
-					if (values.containsKey(pos.getURL()) && values.get(pos.getURL()).containsKey(pos)) {
-						PointerKey messageVal = values.get(pos.getURL()).get(pos);
-						if (messageVal instanceof LocalPointerKey) {
-							LocalPointerKey lpk = (LocalPointerKey)messageVal;
-							CGNode node = lpk.getNode();
-							SSAInstruction def = node.getDU().getDef(lpk.getValueNumber());
-							NormalStatement root = new NormalStatement(node, def.iIndex());
-							Slicer s = new Slicer();
-							Collection<Statement> deps = s.slice(new SDG<InstanceKey>(CG, cgBuilder.getPointerAnalysis(), DataDependenceOptions.FULL, ControlDependenceOptions.NONE), Collections.singleton(root), true);
-							for(Statement dep : deps) {
-								if (dep.getNode().getMethod() instanceof AstMethod) {
-									if ((dep instanceof NormalStatement) || (dep instanceof ParamCaller) || (dep instanceof ParamCallee)) {
-										DebuggingInformation debugInfo = ((AstMethod)dep.getNode().getMethod()).debugInfo();
-										Position depPos = null;
-										if (dep instanceof NormalStatement) {
-											depPos = debugInfo.getInstructionPosition(((NormalStatement)dep).getInstructionIndex());
-										}  else if (dep instanceof ParamCaller) {
-											ParamCaller clr = (ParamCaller) dep;
-											int vn = clr.getValueNumber();
-											SSAAbstractInvokeInstruction inst = clr.getInstruction();
-											for(int i = 0; i < inst.getNumberOfUses(); i++) {
-												if (vn == inst.getUse(i)) {
-													depPos = debugInfo.getOperandPosition(inst.iIndex(), i);
-													break;
-												}
-											}
-										}  else {
-											assert dep instanceof ParamCallee;
-											ParamCallee cle = (ParamCallee) dep;
-											AstMethod m = (AstMethod) cle.getNode().getMethod();
-											depPos = m.getParameterPosition(cle.getValueNumber()-1);
-										}
+			Map<URL, PositionIndex<PointerKey>> values = build(run.values, this.values);
+			BatchSlicer slicer = new BatchSlicer(CG, cgBuilder.getPointerAnalysis(), sliceMode, sliceBudget, slicingPool);
+			List<AnalysisError> errors = new LinkedList<>(errorsOfRun.values());
+			Map<String, List<Diagnostic>> diags = diagnostics(errors, values, run.texts, slicer, false, monitor);
+
+			SymbolIndex symbols = SymbolIndex.build(run.documentSymbols, CG);
+			MonitorUtil.throwExceptionIfCanceled(monitor);
+			return new AnalysisSnapshot(
+				language,
+				CG,
+				values,
+				build(run.instructions, instructions),
+				run.documentSymbols,
+				run.valueAnalyses,
+				run.instructionAnalyses,
+				run.findDefinitionAnalysis,
+				run.texts,
+				slicer,
+				CallIndex.build(CG),
+				symbols,
+				WALAServer.this::unresolvedCodeLenses,
+				errors,
+				diags,
+				digests,
+				configuration);
+		} catch (CancelException e) {
+			return null;
+		} catch (IOException | IllegalArgumentException e) {
+			assert false : e;
+			return null;
+		} finally {
+			currentRun.remove();
+		}
+	}
 
-										if (depPos != null) {
-											DiagnosticRelatedInformation di = new DiagnosticRelatedInformation();
-											di.setLocation(locationFromWALA(depPos));
-											di.setMessage(new SourceBuffer(depPos).toString().replaceAll("[\\s]*[\\n][\\s]*", " "));
-											relList.add(di);
+	/**
+	 * @return the diagnostics of the given errors; unless slices is set,
+	 *   the related information that needs slicing is left out
+	 */
+	private Map<String, List<Diagnostic>> diagnostics(
+			Collection<AnalysisError> errors,
+			Map<URL, PositionIndex<PointerKey>> values,
+			Map<URL, Rope> texts,
+			BatchSlicer slicer,
+			boolean slices,
+			IProgressMonitor monitor) throws CancelException, IOException {
+		if (slices) {
+			List<Statement> seeds = new LinkedList<>();
+			for(AnalysisError e : errors) {
+				Statement seed = sliceSeed(values, e.position());
+				if (seed != null) {
+					seeds.add(seed);
+				}
+			}
+			slicer.sliceAll(seeds);
+			MonitorUtil.throwExceptionIfCanceled(monitor);
+		}
+
+		// diagnostics are compared structurally, so duplicates collapse
+		Map<String, Set<Diagnostic>> diags = HashMapFactory.make();
+		for(AnalysisError e : errors) {
+			MonitorUtil.throwExceptionIfCanceled(monitor);
+			Diagnostic d = new Diagnostic();
+			// Diagnostics do not currently support markdown
+			d.setMessage(e.toString(false));
+			
+			Position pos = e.position();
+			d.setRange(locationFromWALA(pos).getRange());
+		
+			d.setSource(e.source());
+			d.setSeverity(e.severity());
+			
+			if (supportsRelatedInformation()) {
+				Set<DiagnosticRelatedInformation> relList = HashSetFactory.make();
+
+				Statement root = slices? sliceSeed(values, pos): null;
+				if (root != null) {
+					Collection<Statement> deps = slicer.slice(root);
+					for(Statement dep : deps) {
+						if (dep.getNode().getMethod() instanceof AstMethod) {
+							if ((dep instanceof NormalStatement) || (dep instanceof ParamCaller) || (dep instanceof ParamCallee)) {
+								DebuggingInformation debugInfo = ((AstMethod)dep.getNode().getMethod()).debugInfo();
+								Position depPos = null;
+								if (dep instanceof NormalStatement) {
+									depPos = debugInfo.getInstructionPosition(((NormalStatement)dep).getInstructionIndex());
+								}  else if (dep instanceof ParamCaller) {
+									ParamCaller clr = (ParamCaller) dep;
+									int vn = clr.getValueNumber();
+									SSAAbstractInvokeInstruction inst = clr.getInstruction();
+									for(int i = 0; i < inst.getNumberOfUses(); i++) {
+										if (vn == inst.getUse(i)) {
+											depPos = debugInfo.getOperandPosition(inst.iIndex(), i);
+											break;
 										}
 									}
+								}  else {
+									assert dep instanceof ParamCallee;
+									ParamCallee cle = (ParamCallee) dep;
+									AstMethod m = (AstMethod) cle.getNode().getMethod();
+									depPos = m.getParameterPosition(cle.getValueNumber()-1);
 								}
-							}
-						}
-					}
 
-					if (e.related() != null) {
-						for (Pair<Position, String> related : e.related()) {
-							DiagnosticRelatedInformation di = new DiagnosticRelatedInformation();
-							di.setLocation(locationFromWALA(related.fst));
-							di.setMessage(related.snd);
-							relList.add(di);
+								if (depPos != null) {
+									DiagnosticRelatedInformation di = new DiagnosticRelatedInformation();
+									di.setLocation(locationFromWALA(depPos));
+									di.setMessage(sourceCode(texts, depPos).replaceAll("[\\s]*[\\n][\\s]*", " "));
+									relList.add(di);
+								}
+							}
 						}
 					}
+				}
 
-					if (! relList.isEmpty()) {
-						d.setRelatedInformation(new LinkedList<>(relList));
+				if (e.related() != null) {
+					for (Pair<Position, String> related : e.related()) {
+						DiagnosticRelatedInformation di = new DiagnosticRelatedInformation();
+						di.setLocation(locationFromWALA(related.fst));
+						di.setMessage(related.snd);
+						relList.add(di);
 					}
 				}
 
-				String uri = Util.unmangleUri(getPositionUri(pos).toString());
-				if (! diags.containsKey(uri)) {
-					diags.put(uri, new LinkedList<>());
-				}
-				for(Diagnostic od : diags.get(uri)) {
-					if (od.toString().equals(d.toString())) {
-						continue errors;
-					}
+				if (! relList.isEmpty()) {
+					d.setRelatedInformation(new LinkedList<>(relList));
 				}
-				diags.get(uri).add(d);
 			}
 
-			if (supportsRelatedInformation()) {
-				CG.forEach((CGNode n) -> {
-					if (n.getMethod() instanceof AstMethod) {
-						{
-							List<DiagnosticRelatedInformation> relList = new LinkedList<>();
-							CG.getPredNodes(n).forEachRemaining((CGNode caller) -> {
-								if (caller.getMethod() instanceof AstMethod) {
-									CG.getPossibleSites(caller, n).forEachRemaining((CallSiteReference site) -> {
-										for(SSAAbstractInvokeInstruction call : caller.getIR().getCalls(site)) {
-											Position callPos = ((AstMethod)caller.getMethod()).getSourcePosition(call.iIndex());
-											DiagnosticRelatedInformation di = new DiagnosticRelatedInformation();
-											di.setLocation(locationFromWALA(callPos));
-											try {
-												di.setMessage("call site " + new SourceBuffer(callPos));
-											} catch (IOException e1) {
-												di.setMessage("call site");
-											}
-											relList.add(di);}
-									});
-								}
-							});
-							if (! relList.isEmpty()) {
-								addInfoDiagnostic(diags, relList, ((AstMethod)n.getMethod()).debugInfo().getCodeNamePosition());
+			String uri = Util.unmangleUri(getPositionUri(pos).toString());
+			if (! diags.containsKey(uri)) {
+				diags.put(uri, HashSetFactory.make());
+			}
+			diags.get(uri).add(d);
+		}
+
+		Map<String, List<Diagnostic>> result = HashMapFactory.make();
+		diags.forEach((uri, ds) -> result.put(uri, new LinkedList<>(ds)));
+		return result;
+	}
+
+	private static boolean contains(Position outer, Position pos) {
+		return
+			(outer.getFirstLine() < pos.getFirstLine() ||
+			 (outer.getFirstLine() == pos.getFirstLine() && outer.getFirstCol() <= pos.getFirstCol())) &&
+			(outer.getLastLine() > pos.getLastLine() ||
+			 (outer.getLastLine() == pos.getLastLine() && outer.getLastCol() >= pos.getLastCol()));
+	}
+
+	/**
+	 * @return the call sites of the function whose name is at pos or, for a
+	 *   call at pos, the functions it may call and the callers of the
+	 *   function containing it
+	 */
+	private List<DiagnosticRelatedInformation> callInformation(AnalysisSnapshot snapshot, String document, Position pos) {
+		CallGraph CG = snapshot.getCallGraph();
+		CallIndex calls = snapshot.getCalls();
+		List<DiagnosticRelatedInformation> result = new LinkedList<>();
+
+		for(WalaSymbolInformation symbol : snapshot.getSymbols().inDocument(document)) {
+			if (symbol.getNamePosition() != null && contains(symbol.getNamePosition(), pos)) {
+				for(int n : snapshot.getSymbols().nodes(symbol.getName())) {
+					calls.forEachCallTo(n, (caller, callee, site) -> {
+						if (site != null) {
+							DiagnosticRelatedInformation di = new DiagnosticRelatedInformation();
+							di.setLocation(locationFromWALA(site));
+							try {
+								di.setMessage("call site " + sourceCode(snapshot.getTexts(), site));
+							} catch (IOException e1) {
+								di.setMessage("call site");
 							}
+							result.add(di);
 						}
-						n.iterateCallSites().forEachRemaining((CallSiteReference site) -> {
-							for(SSAAbstractInvokeInstruction inst : n.getIR().getCalls(site)) {
-								List<DiagnosticRelatedInformation> relList = new LinkedList<>();
-								CG.getPossibleTargets(n, site).forEach((CGNode callee) -> {
-									if (callee.getMethod() instanceof AstMethod) {
-										Position p = ((AstMethod)callee.getMethod()).getSourcePosition();
-										DiagnosticRelatedInformation di = new DiagnosticRelatedInformation();
-										di.setLocation(locationFromWALA(p));
-										di.setMessage("callee " + callee.getMethod());
-										relList.add(di);
-									}
-								});
-								
-								if (! relList.isEmpty()) {
-									CG.getPredNodes(n).forEachRemaining((CGNode caller) -> {
-										if (caller.getMethod() instanceof AstMethod) {
-											CG.getPossibleSites(caller, n).forEachRemaining((CallSiteReference callerSite) -> {
-												for(SSAAbstractInvokeInstruction call : caller.getIR().getCalls(callerSite)) {
-													Position callerPos = ((AstMethod)caller.getMethod()).getSourcePosition(call.iIndex());
-													DiagnosticRelatedInformation di = new DiagnosticRelatedInformation();
-													di.setLocation(locationFromWALA(callerPos));
-													di.setMessage("caller " + caller.getMethod());
-													relList.add(di);											
-												}
-											});
-										}
-									});
+					});
+				}
+				return result;
+			}
+		}
 
-									Position call = ((AstMethod)n.getMethod()).getSourcePosition(inst.iIndex());
-									addInfoDiagnostic(diags, relList, call);
-								}
-							}
-						});
-					}
-				});
+		PositionIndex<int[]> instructions = snapshot.getInstructions().get(pos.getURL());
+		int[] nearest = instructions == null? null: instructions.nearestValue(pos);
+		if (nearest == null) {
+			return result;
+		}
+		CGNode n = CG.getNode(nearest[0]);
+		if (n == null || !(n.getMethod() instanceof AstMethod)) {
+			return result;
+		}
+		SSAInstruction[] insts = n.getIR().getInstructions();
+		if (nearest[1] >= insts.length || !(insts[nearest[1]] instanceof SSAAbstractInvokeInstruction)) {
+			return result;
+		}
+		Position call = ((AstMethod)n.getMethod()).getSourcePosition(nearest[1]);
+		calls.forEachCallFrom(nearest[0], (caller, callee, site) -> {
+			IMethod target = CG.getNode(callee).getMethod();
+			if (call.equals(site) && target instanceof AstMethod) {
+				DiagnosticRelatedInformation di = new DiagnosticRelatedInformation();
+				di.setLocation(locationFromWALA(((AstMethod)target).getSourcePosition()));
+				di.setMessage("callee " + target);
+				result.add(di);
 			}
-			
-			return diags;
-		} catch (IOException | IllegalArgumentException | CancelException e) {
+		});
+		if (! result.isEmpty()) {
+			calls.forEachCallTo(nearest[0], (caller, callee, site) -> {
+				if (site != null) {
+					DiagnosticRelatedInformation di = new DiagnosticRelatedInformation();
+					di.setLocation(locationFromWALA(site));
+					di.setMessage("caller " + CG.getNode(caller).getMethod());
+					result.add(di);
+				}
+			});
+		}
+		return result;
+	}
+
+	private CompletableFuture<Object> callInformationCommand(String uri, Position pos) {
+		return CompletableFuture.supplyAsync(() -> {
+			AnalysisSnapshot snapshot = snapshotFor(pos.getURL());
+			if (snapshot == null) {
+				return Collections.emptyList();
+			}
+			return callInformation(snapshot, uri, pos);
+		});
+	}
+
+	/**
+	 * Compute the related information of the diagnostics of a published
+	 * snapshot, and publish them again with it.  This runs in the
+	 * background after the plain diagnostics have been published, and is
+	 * abandoned when the snapshot is superseded.
+	 */
+	private void addRelatedInformation(AnalysisSnapshot snapshot, AnalysisMonitor monitor) {
+		try {
+			Map<String, List<Diagnostic>> diags = diagnostics(snapshot.getErrors(), snapshot.getValues(), snapshot.getTexts(), snapshot.getSlicer(), true, monitor);
+			if (isCurrent(monitor) && snapshots.get(snapshot.getLanguage()) == snapshot) {
+				publishDiagnostics(snapshot.getLanguage(), diags, Util::unmangleUri);
+				snapshot.setRelatedInformation();
+			}
+		} catch (CancelException e) {
+			// superseded by a newer analysis
+		} catch (IOException e) {
 			assert false : e;
-			return null;
+		} finally {
+			enrichments.remove(snapshot.getLanguage(), monitor);
+		}
+	}
+
+	@Override
+	public void exit() {
+		// keep the hovers rendered since the results were stored
+		for(AnalysisSnapshot snapshot : snapshots.values()) {
+			storeHovers(snapshot);
 		}
+		super.exit();
 	}
 
-	private void addInfoDiagnostic(Map<String, List<Diagnostic>> diags, List<DiagnosticRelatedInformation> relList,
-			Position call) {
-		Diagnostic d = new Diagnostic();
-		Location callPos = locationFromWALA(call);
-		d.setRange(callPos.getRange());
-		d.setSeverity(DiagnosticSeverity.Information);
-		d.setSource("Ariadne");
-		d.setMessage("call information");
-		d.setRelatedInformation(relList);
-		String uri = callPos.getUri();
-		if (! diags.containsKey(uri)) {
-			diags.put(uri, new LinkedList<>());
+	@Override
+	protected void cancelStaleAnalysis(String language) {
+		super.cancelStaleAnalysis(language);
+		AnalysisMonitor enrichment = enrichments.get(language);
+		if (enrichment != null && !isCurrent(enrichment)) {
+			enrichment.cancel();
 		}
-		diags.get(uri).add(d);
 	}
 
 	private Boolean supportsRelatedInformation() {
@@ -630,7 +1091,7 @@ public class WALAServer extends WALAServerCore {
 	}
 
 	public static enum WalaCommand {
-		CALLS, TYPES, FIXES
+		CALLS, TYPES, FIXES, CALL_INFO
 	}
 
 	@Override
@@ -641,15 +1102,17 @@ public class WALAServer extends WALAServerCore {
 			client.logMessage(new MessageParams(MessageType.Error, "initialize called multiple times."));
 		}
 		this.initializeParams = params;
+		initializeWorkspace(params);
 		final ServerCapabilities caps = new ServerCapabilities();
 		caps.setHoverProvider(true);
-		caps.setTextDocumentSync(TextDocumentSyncKind.Full);
+		caps.setTextDocumentSync(TextDocumentSyncKind.Incremental);
 		CodeLensOptions cl = new CodeLensOptions();
-		cl.setResolveProvider(false);
+		cl.setResolveProvider(true);
 		caps.setCodeLensProvider(cl);
 		caps.setDocumentSymbolProvider(true);
 		caps.setDefinitionProvider(true);
 		caps.setReferencesProvider(true);
+		caps.setWorkspaceSymbolProvider(true);
 		ExecuteCommandOptions exec = new ExecuteCommandOptions();
 		List<String> cmds = 
 				Arrays.stream(WalaCommand.values())
@@ -671,6 +1134,20 @@ public class WALAServer extends WALAServerCore {
 	public TextDocumentService getTextDocumentService() {
 		return new WALATextDocumentService() {
 
+			@Override
+			public void didOpen(DidOpenTextDocumentParams params) {
+				super.didOpen(params);
+				String document = Util.mangleUri(params.getTextDocument().getUri());
+				// looking up the entry takes the digest of the document, so not on the message thread
+				CompletableFuture.runAsync(() -> {
+					AnalysisCache.Entry cached = cachedEntry(document);
+					if (cached != null && !cached.getDiagnostics().isEmpty()) {
+						// until the analysis of this document is published
+						publishProvisionalDiagnostics(params.getTextDocument().getLanguageId(), document, cached.getDiagnostics());
+					}
+				});
+			}
+
 			@Override
 			public CompletableFuture<Either<List<CompletionItem>, CompletionList>> completion(
 					CompletionParams position) {
@@ -693,7 +1170,15 @@ public class WALAServer extends WALAServerCore {
 						Position lookupPos = lookupPos(position.getPosition(), url);
 						final String hoverMarkupKind = getHoverFormatRequested();
 						final boolean hoverKind = MarkupKind.MARKDOWN.equals(hoverMarkupKind);
-						String msg = positionToString(lookupPos, hoverKind);
+						AnalysisSnapshot snapshot = snapshotFor(url);
+						String msg;
+						if (snapshot != null) {
+							msg = hoverText(snapshot, lookupPos, hoverKind);
+						} else {
+							AnalysisCache.Entry cached = cachedEntry(uri);
+							String text = cached == null? null: cached.hover(url, position.getPosition(), hoverKind);
+							msg = text == null? "": text;
+						}
 						
 						if(hoverKind) {
 							MarkupContent md = new MarkupContent();
@@ -721,18 +1206,18 @@ public class WALAServer extends WALAServerCore {
 			public CompletableFuture<Either<List<? extends Location>, List<? extends LocationLink>>> definition(TextDocumentPositionParams position) {
 				return CompletableFuture.supplyAsync(() -> {
 					try {
-						if (findDefinitionAnalysis == null) {
+						Position pos = lookupPos(position.getPosition(), new URI(Util.mangleUri(position.getTextDocument().getUri())).toURL());
+						AnalysisSnapshot snapshot = snapshotFor(pos.getURL());
+						if (snapshot == null || snapshot.getFindDefinitionAnalysis() == null) {
 							return null;
 						}
-						Position pos = lookupPos(position.getPosition(), new URI(Util.mangleUri(position.getTextDocument().getUri())).toURL());
 
-						if (instructions.containsKey(pos.getURL())) {
-							NavigableMap<Position, int[]> scriptPositions = instructions.get(pos.getURL());
-							Position nearest = getNearest(scriptPositions, pos);
+						if (snapshot.getInstructions().containsKey(pos.getURL())) {
+							int[] nearest = snapshot.getInstructions().get(pos.getURL()).nearestValue(pos);
 							if(nearest == null) {
 								return null;
 							}
-							Set<Position> locations = findDefinitionAnalysis.apply(scriptPositions.get(nearest));
+							Set<Position> locations = snapshot.getFindDefinitionAnalysis().apply(nearest);
 							if(locations == null || locations.isEmpty()) {
 								return null;
 							}
@@ -761,31 +1246,15 @@ public class WALAServer extends WALAServerCore {
 					Set<Location> result = HashSetFactory.make();
 					org.eclipse.lsp4j.Position pos = params.getPosition();
 					String file = Util.mangleUri(params.getTextDocument().getUri());
-					if (documentSymbols.containsKey(file)) {
-						Collection<WalaSymbolInformation> symbols = documentSymbols.get(file).values();
-						for(WalaSymbolInformation symbol : symbols) {
-							org.eclipse.lsp4j.Position sp = symbol.getLocation().getRange().getStart();
-							if (pos.equals(sp)) {
-								for(CallGraph CG : languageBuilders.values()) {
-									for(IClassLoader loader : CG.getClassHierarchy().getLoaders()) {
-										String typeName = symbol.getName();
-										MethodReference function = AstMethodReference.fnReference(TypeReference.findOrCreate(loader.getReference(), typeName));
-										for(CGNode symbolNode : CG.getNodes(function)) {
-											for(Iterator<CGNode> callerNodes = CG.getPredNodes(symbolNode); callerNodes.hasNext(); ) {
-												CGNode callerNode = callerNodes.next();
-												if (callerNode.getMethod() instanceof AstMethod) {
-													IR callerIR = callerNode.getIR();
-													for (Iterator<CallSiteReference> sites = CG.getPossibleSites(callerNode, symbolNode); sites.hasNext(); ) {
-														CallSiteReference site = sites.next();
-														SSAInstruction inst = callerIR.getCalls(site)[0];
-														Position p = ((AstMethod)callerNode.getMethod()).getSourcePosition(inst.iIndex());
-														result.add(locationFromWALA(p));
-													}
-												}
-											}
-										}
+					for(AnalysisSnapshot snapshot : snapshots.values()) {
+						WalaSymbolInformation symbol = snapshot.getSymbols().at(file, pos);
+						if (symbol != null) {
+							for(int symbolNode : snapshot.getSymbols().nodes(symbol.getName())) {
+								snapshot.getCalls().forEachCallTo(symbolNode, (caller, callee, site) -> {
+									if (site != null) {
+										result.add(locationFromWALA(site));
 									}
-								}
+								});
 							}
 						}
 					}
@@ -804,15 +1273,17 @@ public class WALAServer extends WALAServerCore {
 			public CompletableFuture<List<Either<SymbolInformation, DocumentSymbol>>> documentSymbol(DocumentSymbolParams params) {
 				return CompletableFuture.supplyAsync(() -> {
 					String document = Util.mangleUri(params.getTextDocument().getUri());
-					if (! documentSymbols.containsKey(document)) {
-						return Collections.emptyList();
-					} else {
-						List<Either<SymbolInformation, DocumentSymbol>> l = new LinkedList<>();
-						for(WalaSymbolInformation s : documentSymbols.get(document).values()) {
+					List<Either<SymbolInformation, DocumentSymbol>> l = new LinkedList<>();
+					for(WalaSymbolInformation s : documentSymbols(document)) {
+						l.add(Either.forLeft(s));
+					}
+					AnalysisCache.Entry cached = l.isEmpty()? cachedEntry(document): null;
+					if (cached != null) {
+						for(SymbolInformation s : cached.getSymbols()) {
 							l.add(Either.forLeft(s));
 						}
-						return l;
 					}
+					return l;
 				});
 			}
 
@@ -839,27 +1310,6 @@ public class WALAServer extends WALAServerCore {
 				});
 			}
 
-			public void addTypesCodeLensesForSymbol(WalaSymbolInformation sym, List<CodeLens> result) {
-				CodeLens cl = new CodeLens();
-				final String typeName = sym.getFunction().getDeclaringClass().getName().toString();
-				if(typeName == null) {
-					return;
-				}
-				final String type = getTypeListForName(typeName);
-				if(type == null) {
-					return;
-				}
-
-				final String command = WalaCommand.TYPES.toString();
-				final String title = type;
-				Command cmd = new Command(title, command);
-				cmd.setArguments(Arrays.asList(typeName));
-				cl.setCommand(cmd);
-				cl.setRange(locationFromWALA(sym.namePosition).getRange());
-				cl.setData(type);
-				result.add(cl);
-			}
-
 			public void addCallsCodeLensesForSymbol(WalaSymbolInformation sym, List<CodeLens> result) {
 				CodeLens cl = new CodeLens();
 				final String command = WalaCommand.CALLS.toString();
@@ -872,76 +1322,45 @@ public class WALAServer extends WALAServerCore {
 				result.add(cl);
 			}
 
-			public void addAssignCodeLensesForSymbol(WalaSymbolInformation sym, List<CodeLens> result) {
-				final Set<Range> done = HashSetFactory.make();
-				final String typeName = sym.getFunction().getDeclaringClass().getName().toString();
-				for (CallGraph CG : languageBuilders.values()) {
-					for (IClassLoader loader : CG.getClassHierarchy().getLoaders()) {
-						MethodReference function = AstMethodReference
-								.fnReference(TypeReference.findOrCreate(loader.getReference(), typeName));
-						for (CGNode n : CG.getNodes(function)) {
-							AstIR ir = (AstIR) n.getIR();
-							SSAInstruction[] insts = ir.getInstructions();
-							DebuggingInformation debugInfo = ir.getMethod().debugInfo();
-							for(int i = 0; i < insts.length; i++) {
-								if (insts[i] == null) {
-									Position assignPos = debugInfo.getInstructionPosition(i);
-
-									if (assignPos != null) {
-										CodeLens cl = new CodeLens();
-										final String command = WalaCommand.TYPES.toString();
-										final String title = positionToType(assignPos, false);
-										if(title == null) {
-											continue;
-										}
-										try {
-											String code = new SourceBuffer(assignPos).toString();
-											if (! "".equals(title) && code.startsWith(title.substring(0, 1))) {
-												Command cmd = new Command(title, command);
-												cmd.setArguments(Arrays.asList(typeName));
-												cl.setCommand(cmd);
-												cl.setRange(locationFromWALA(assignPos).getRange());
-												if (! done.contains(cl.getRange())) {
-													done.add(cl.getRange());
-													result.add(cl);
-												}
-											}
-										} catch (IOException e) {
-											// TODO Auto-generated catch block
-											e.printStackTrace();
-										}
-									}
-								}
-							}
-						}
-					}
-				}
-			}
-
-			public void addCodeLensesForSymbol(WalaSymbolInformation sym, List<CodeLens> result) {
-				addTypesCodeLensesForSymbol(sym, result);
-				addAssignCodeLensesForSymbol(sym, result);
-				//addCallsCodeLensesForSymbol(sym, result);
-			}
-
 			@Override
 			public CompletableFuture<List<? extends CodeLens>> codeLens(CodeLensParams params) {
 				return CompletableFuture.supplyAsync(() -> {
 					List<CodeLens> result = new LinkedList<CodeLens>();
 					String document = Util.mangleUri(params.getTextDocument().getUri());
-					if (documentSymbols.containsKey(document)) {
-						for(WalaSymbolInformation sym : documentSymbols.get(document).values()) {
-							addCodeLensesForSymbol(sym, result);
-						}
-					} 
+					for(AnalysisSnapshot snapshot : snapshots.values()) {
+						// unresolved; resolveCodeLens fills in the ones the editor shows
+						result.addAll(snapshot.getCodeLenses().getOrDefault(document, Collections.emptyList()));
+					}
+					AnalysisCache.Entry cached = result.isEmpty()? cachedEntry(document): null;
+					if (cached != null) {
+						result.addAll(cached.getCodeLenses());
+					}
 					return result;
 				});
 			}
 
 			@Override
 			public CompletableFuture<CodeLens> resolveCodeLens(CodeLens unresolved) {
-				// TODO Auto-generated method stub
-				return null;
+				return CompletableFuture.supplyAsync(() -> {
+					CodeLens resolved = null;
+					String document = codeLensData(unresolved, "document");
+					try {
+						AnalysisSnapshot snapshot = document == null? null: snapshotFor(new URI(document).toURL());
+						if (snapshot != null) {
+							resolved = resolve(snapshot, unresolved);
+						}
+					} catch (MalformedURLException | URISyntaxException | IllegalArgumentException e) {
+						// not a lens of ours
+					}
+					if (resolved == null) {
+						// the document was analyzed again since, and this lens no longer has a type
+						String function = codeLensData(unresolved, "function");
+						Command cmd = new Command(NO_TYPE, WalaCommand.TYPES.toString());
+						cmd.setArguments(function == null? Collections.emptyList(): Arrays.asList(function));
+						resolved = new CodeLens(unresolved.getRange(), cmd, unresolved.getData());
+					}
+					return resolved;
+				});
 			}
 
 			@Override
@@ -971,38 +1390,140 @@ public class WALAServer extends WALAServerCore {
 		};
 	}
 
-	private String getTypeListForName(String typeName) {
-		final Set<String> types = getTypesForName(typeName);
-		if(types == null || types.isEmpty()) {
+	private static JsonObject codeLensData(String kind, String document, String typeName) {
+		JsonObject data = new JsonObject();
+		data.addProperty("kind", kind);
+		data.addProperty("document", document);
+		data.addProperty("function", typeName);
+		return data;
+	}
+
+	/**
+	 * @return a property of the data of a lens, or null if the lens is not
+	 *   one of ours
+	 */
+	private static String codeLensData(CodeLens lens, String property) {
+		if (lens.getData() instanceof JsonObject) {
+			JsonElement value = ((JsonObject)lens.getData()).get(property);
+			if (value instanceof JsonPrimitive) {
+				return value.getAsString();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the code lenses of each document of a snapshot with their
+	 *   ranges, but not their titles; the type summaries of the snapshot's
+	 *   functions are computed now, and leave out the lenses that have no
+	 *   type, so that resolving a lens the editor shows is cheap
+	 */
+	private Map<String, List<CodeLens>> unresolvedCodeLenses(AnalysisSnapshot snapshot) {
+		CallGraph CG = snapshot.getCallGraph();
+		SymbolIndex symbols = snapshot.getSymbols();
+		Map<String, List<CodeLens>> result = HashMapFactory.make();
+		for(String document : snapshot.getDocumentSymbols().keySet()) {
+			List<CodeLens> lenses = new LinkedList<>();
+			for(WalaSymbolInformation sym : symbols.inDocument(document)) {
+				String typeName = sym.getFunction().getDeclaringClass().getName().toString();
+				if (sym.getNamePosition() != null) {
+					Range range = locationFromWALA(sym.getNamePosition()).getRange();
+					addIfTyped(snapshot, new CodeLens(range, null, codeLensData("types", document, typeName)), lenses);
+				}
+
+				Set<Range> done = HashSetFactory.make();
+				for(int node : symbols.nodes(typeName)) {
+					AstIR ir = (AstIR) CG.getNode(node).getIR();
+					SSAInstruction[] insts = ir.getInstructions();
+					DebuggingInformation debugInfo = ir.getMethod().debugInfo();
+					for(int i = 0; i < insts.length; i++) {
+						if (insts[i] == null) {
+							Position assignPos = debugInfo.getInstructionPosition(i);
+							if (assignPos != null) {
+								Range range = locationFromWALA(assignPos).getRange();
+								if (done.add(range)) {
+									addIfTyped(snapshot, new CodeLens(range, null, codeLensData("assign", document, typeName)), lenses);
+								}
+							}
+						}
+					}
+				}
+			}
+			result.put(document, Collections.unmodifiableList(lenses));
+		}
+		return result;
+	}
+
+	private void addIfTyped(AnalysisSnapshot snapshot, CodeLens unresolved, List<CodeLens> lenses) {
+		if (resolve(snapshot, unresolved) != null) {
+			lenses.add(unresolved);
+		}
+	}
+
+	/**
+	 * @return the lens with the type it shows, or null if the analyses
+	 *   found no type for it
+	 */
+	private CodeLens resolve(AnalysisSnapshot snapshot, CodeLens unresolved) {
+		String typeName = codeLensData(unresolved, "function");
+		if (typeName == null) {
+			return null;
+		}
+		TypeSummaries.Summary types = typeSummary(snapshot, typeName);
+		String title = null;
+		if ("types".equals(codeLensData(unresolved, "kind"))) {
+			title = types.getParameterTypeList();
+		} else {
+			List<Position> assignments = types.getAssignments();
+			for(int i = 0; i < assignments.size(); i++) {
+				if (locationFromWALA(assignments.get(i)).getRange().equals(unresolved.getRange())) {
+					title = types.getAssignmentType(i);
+					break;
+				}
+			}
+		}
+		if (title == null || title.isEmpty()) {
 			return null;
 		}
 
-		final String type = types.stream().collect(Collectors.joining(", "));
-		return type;
-	}
-
-	private Set<String> getTypesForName(String typeName) {
-		Set<String> result = HashSetFactory.make();
-		for (CallGraph CG : languageBuilders.values()) {
-			for (IClassLoader loader : CG.getClassHierarchy().getLoaders()) {
-				MethodReference function = AstMethodReference
-						.fnReference(TypeReference.findOrCreate(loader.getReference(), typeName));
-				for (CGNode n : CG.getNodes(function)) {
-					AstIR ir = (AstIR) n.getIR();
-					DefUse du = n.getDU();
-					for (int v = 1; v <= ir.getSymbolTable().getNumberOfParameters(); v++) {
-						if (du.getUses(v).hasNext()) {
-							SSAInstruction inst = du.getUses(v).next();
-							if (inst.iIndex() != -1) {
-								for (int i = 0; i < inst.getNumberOfUses(); i++) {
-									if (inst.getUse(i) == v) {
-										Position pos = ir.getMethod().debugInfo().getOperandPosition(inst.iIndex(), i);
-										if (pos != null) {
-											String type = positionToType(pos, false);
-											if(type != null) {
-												result.add(type);
-											}
-										}
+		Command cmd = new Command(title, WalaCommand.TYPES.toString());
+		cmd.setArguments(Arrays.asList(typeName));
+		return new CodeLens(unresolved.getRange(), cmd, unresolved.getData());
+	}
+
+	private TypeSummaries.Summary typeSummary(AnalysisSnapshot snapshot, String typeName) {
+		return snapshot.getTypes().get(typeName, (f) -> summarizeTypes(snapshot, f));
+	}
+
+	/**
+	 * find the types of the parameters and of the copy statements of a
+	 * function; this runs the value analyses, so each snapshot does it at
+	 * most once for each function
+	 */
+	private TypeSummaries.Summary summarizeTypes(AnalysisSnapshot snapshot, String typeName) {
+		TypeSummaries types = snapshot.getTypes();
+		Set<String> parameterTypes = HashSetFactory.make();
+		List<String> parameterTypeList = new LinkedList<>();
+		Set<Range> done = HashSetFactory.make();
+		List<Position> assignments = new LinkedList<>();
+		List<String> assignmentTypes = new LinkedList<>();
+		CallGraph CG = snapshot.getCallGraph();
+		for (int node : snapshot.getSymbols().nodes(typeName)) {
+			CGNode n = CG.getNode(node);
+			AstIR ir = (AstIR) n.getIR();
+			DefUse du = n.getDU();
+			DebuggingInformation debugInfo = ir.getMethod().debugInfo();
+			for (int v = 1; v <= ir.getSymbolTable().getNumberOfParameters(); v++) {
+				if (du.getUses(v).hasNext()) {
+					SSAInstruction inst = du.getUses(v).next();
+					if (inst.iIndex() != -1) {
+						for (int i = 0; i < inst.getNumberOfUses(); i++) {
+							if (inst.getUse(i) == v) {
+								Position pos = debugInfo.getOperandPosition(inst.iIndex(), i);
+								if (pos != null) {
+									String type = positionToType(snapshot, pos, false);
+									if(type != null && parameterTypes.add(type)) {
+										parameterTypeList.add(types.intern(type));
 									}
 								}
 							}
@@ -1010,39 +1531,73 @@ public class WALAServer extends WALAServerCore {
 					}
 				}
 			}
+
+			SSAInstruction[] insts = ir.getInstructions();
+			for(int i = 0; i < insts.length; i++) {
+				if (insts[i] == null) {
+					Position assignPos = debugInfo.getInstructionPosition(i);
+					if (assignPos != null) {
+						final String title = positionToType(snapshot, assignPos, false);
+						if(title == null) {
+							continue;
+						}
+						try {
+							String code = sourceCode(snapshot.getTexts(), assignPos);
+							if (! "".equals(title) && code.startsWith(title.substring(0, 1))) {
+								if (done.add(locationFromWALA(assignPos).getRange())) {
+									assignments.add(assignPos);
+									assignmentTypes.add(types.intern(title));
+								}
+							}
+						} catch (IOException e) {
+							// TODO Auto-generated catch block
+							e.printStackTrace();
+						}
+					}
+				}
+			}
 		}
-		return result;
+		return new TypeSummaries.Summary(
+			parameterTypeList, 
+			assignments.toArray(new Position[assignments.size()]), 
+			assignmentTypes.toArray(new String[assignmentTypes.size()]));
 	}
 
 	private CompletableFuture<Object> typesCommand(ExecuteCommandParams params) {
 		return CompletableFuture.supplyAsync(() -> {
+			Set<String> result = HashSetFactory.make();
+			if (params.getArguments() == null || params.getArguments().isEmpty() || !(params.getArguments().get(0) instanceof JsonPrimitive)) {
+				return result;
+			}
 			String typeName = ((JsonPrimitive)params.getArguments().get(0)).getAsString();
-			return getTypesForName(typeName);
+			for(AnalysisSnapshot snapshot : snapshots.values()) {
+				result.addAll(typeSummary(snapshot, typeName).getParameterTypes());
+			}
+			return result;
 		});
 	}
 
 	private CompletableFuture<Object> callersCommand(ExecuteCommandParams params) {
 		return CompletableFuture.supplyAsync(() -> {
 			Set<Either<String,Location>> result = HashSetFactory.make();
-			for(CallGraph CG : languageBuilders.values()) {
-				for(IClassLoader loader : CG.getClassHierarchy().getLoaders()) {
-					String typeName = ((JsonPrimitive)params.getArguments().get(0)).getAsString();
-					MethodReference function = AstMethodReference.fnReference(TypeReference.findOrCreate(loader.getReference(), typeName));
-					for(CGNode n : CG.getNodes(function)) {
-						CG.getPredNodes(n).forEachRemaining((CGNode caller) -> {
-							IClass functionType = caller.getMethod().getDeclaringClass();
-							String functionName = functionType.getName().toString();
-							if (functionType instanceof AstFunctionClass) {
-								AstFunctionClass fun = (AstFunctionClass) functionType;
-								String file = fun.getSourcePosition().getURL().toString();
-								if (documentSymbols.containsKey(file)) {
-									SymbolInformation fs = documentSymbols.get(file).get(functionName);
-									result.add(Either.forRight(fs.getLocation()));
-									return;
-								}
+			for(AnalysisSnapshot snapshot : snapshots.values()) {
+				CallGraph CG = snapshot.getCallGraph();
+				Map<String, Map<String, WalaSymbolInformation>> documentSymbols = snapshot.getDocumentSymbols();
+				String typeName = ((JsonPrimitive)params.getArguments().get(0)).getAsString();
+				for(int n : snapshot.getSymbols().nodes(typeName)) {
+					for(int caller : snapshot.getCalls().callers(n)) {
+						IClass functionType = CG.getNode(caller).getMethod().getDeclaringClass();
+						String functionName = functionType.getName().toString();
+						if (functionType instanceof AstFunctionClass) {
+							AstFunctionClass fun = (AstFunctionClass) functionType;
+							String file = fun.getSourcePosition().getURL().toString();
+							if (documentSymbols.containsKey(file)) {
+								SymbolInformation fs = documentSymbols.get(file).get(functionName);
+								result.add(Either.forRight(fs.getLocation()));
+								continue;
 							}
-							result.add(Either.forLeft(functionName));
-						});
+						}
+						result.add(Either.forLeft(functionName));
 					}
 				}
 			}
@@ -1062,8 +1617,13 @@ public class WALAServer extends WALAServerCore {
 
 			@Override
 			public CompletableFuture<List<? extends SymbolInformation>> symbol(WorkspaceSymbolParams params) {
-				// TODO Auto-generated method stub
-				return null;
+				return CompletableFuture.supplyAsync(() -> {
+					List<SymbolInformation> result = new LinkedList<>();
+					for(AnalysisSnapshot snapshot : snapshots.values()) {
+						result.addAll(snapshot.getSymbols().search(params.getQuery()));
+					}
+					return result;
+				});
 			}
 
 			@Override
@@ -1077,6 +1637,8 @@ public class WALAServer extends WALAServerCore {
 					return typesCommand(params);
 				case FIXES:
 					return fix(params);
+				case CALL_INFO:
+					return callInformation(params);
 				default:
 					throw new UnsupportedOperationException("The \"" + cmdString + "\" operations is not currently supported by the WALA LSP server.");
 				}
@@ -1096,6 +1658,31 @@ public class WALAServer extends WALAServerCore {
 				return range;
 			}
 
+			/**
+			 * the arguments are a document uri and a position in it; for
+			 * anything else there is no information
+			 */
+			private CompletableFuture<Object> callInformation(ExecuteCommandParams params) {
+				List<Object> args = params.getArguments();
+				if (args == null || args.size() != 2 ||
+					!(args.get(0) instanceof JsonPrimitive) || !((JsonPrimitive)args.get(0)).isString() ||
+					!(args.get(1) instanceof JsonObject)) {
+					return CompletableFuture.completedFuture(Collections.emptyList());
+				}
+				JsonObject position = (JsonObject)args.get(1);
+				if (!position.has("line") || !position.has("character")) {
+					return CompletableFuture.completedFuture(Collections.emptyList());
+				}
+				try {
+					String uri = Util.mangleUri(((JsonPrimitive)args.get(0)).getAsString());
+					org.eclipse.lsp4j.Position pos = positionFromJSON(position);
+					return callInformationCommand(uri, lookupPos(pos, new URI(uri).toURL()));
+				} catch (MalformedURLException | URISyntaxException | IllegalArgumentException | IllegalStateException | UnsupportedOperationException e) {
+					// not a uri, or not numbers for the line and character
+					return CompletableFuture.completedFuture(Collections.emptyList());
+				}
+			}
+
 			private CompletableFuture<Object> fix(ExecuteCommandParams params) {
 				String uri = null;
 				for (Object o : params.getArguments()) {
@@ -1127,8 +1714,7 @@ public class WALAServer extends WALAServerCore {
 
 			@Override
 			public void didChangeWatchedFiles(DidChangeWatchedFilesParams params) {
-				// TODO Auto-generated method stub
-
+				filesChanged(params.getChanges());
 			}
 		};
 	}
@@ -1151,16 +1737,15 @@ public class WALAServer extends WALAServerCore {
 		return name.trim().replaceAll("\\s++", " ");
 	}
 
-	private <T> void positionToString(Position pos, Map<URL, NavigableMap<Position,T>> map, Set<Pair<String,BiFunction<Boolean, T, String>>> analyses, StringBuffer sb, boolean addLabel, boolean useMarkdown) {
+	private <T> void positionToString(Position pos, Map<URL, PositionIndex<T>> map, Set<Pair<String,BiFunction<Boolean, T, String>>> analyses, StringBuffer sb, boolean addLabel, boolean useMarkdown) {
 		if (map.containsKey(pos.getURL())) {
-			NavigableMap<Position, T> scriptPositions = map.get(pos.getURL());
-			Position nearest = getNearest(scriptPositions, pos);
+			T nearest = map.get(pos.getURL()).nearestValue(pos);
 
 			if (nearest != null) {
 				for(Pair<String, BiFunction<Boolean, T,String>> na : analyses) {
 					String n = na.fst;
 					BiFunction<Boolean, T, String> a = na.snd;
-					String s = a.apply(useMarkdown, scriptPositions.get(nearest));
+					String s = a.apply(useMarkdown, nearest);
 					if (s != null) {
 						if(addLabel) {
 							if(useMarkdown) {
@@ -1180,15 +1765,16 @@ public class WALAServer extends WALAServerCore {
 		}
 	}
 
-	private String positionToType(Position pos, boolean useMarkdown) {
+	private String positionToType(AnalysisSnapshot snapshot, Position pos, boolean useMarkdown) {
+		Map<URL, PositionIndex<PointerKey>> values = snapshot.getValues();
 		StringBuffer sb = new StringBuffer();
 		final int sblen = sb.length();
-		positionToString(pos, values, valueAnalyses, sb, false, useMarkdown);
+		positionToString(pos, values, snapshot.getValueAnalyses(), sb, false, useMarkdown);
 		if(sb.length() == 0) {
 			return null;
 		}
 		try {
-			String name = new SourceBuffer(getNearest(values.get(pos.getURL()), pos)).toString();
+			String name = sourceCode(snapshot.getTexts(), values.get(pos.getURL()).nearest(pos));
 			name = compactName(name);
 			sb.insert(sblen, name + ": ");
 		} catch (IOException e) {
@@ -1197,14 +1783,38 @@ public class WALAServer extends WALAServerCore {
 		return sb.toString();
 	}
 
-	private String positionToString(Position pos, boolean useMarkdown) {
+	private String hoverText(AnalysisSnapshot snapshot, Position pos, boolean useMarkdown) {
+		PositionIndex<PointerKey> values = snapshot.getValues().get(pos.getURL());
+		PositionIndex<int[]> instructions = snapshot.getInstructions().get(pos.getURL());
+		HoverKey key = new HoverKey(snapshot.getId(), pos.getURL(),
+				values == null? null: values.nearest(pos),
+				instructions == null? null: instructions.nearest(pos),
+				useMarkdown);
+		String text = hoverCache.computeIfAbsent(key, (k) -> positionToString(snapshot, pos, useMarkdown));
+		if (snapshots.get(snapshot.getLanguage()) != snapshot) {
+			// the snapshot was replaced while the text was computed, possibly
+			// after publish dropped its entries, so drop this one too
+			hoverCache.removeIf(key::equals);
+		}
+		return text;
+	}
+
+	/**
+	 * @return the hover cache, whose hit and miss counts tell how well it is sized
+	 */
+	public LRUCache<?, String> getHoverCache() {
+		return hoverCache;
+	}
+
+	private String positionToString(AnalysisSnapshot snapshot, Position pos, boolean useMarkdown) {
+		Map<URL, PositionIndex<PointerKey>> values = snapshot.getValues();
 		StringBuffer sb = new StringBuffer();
 		int sblen = 0;
-		positionToString(pos, values, valueAnalyses, sb, true, useMarkdown);
+		positionToString(pos, values, snapshot.getValueAnalyses(), sb, true, useMarkdown);
 		if(sblen != 0) {
 			sblen = sb.length();
 		}
-		positionToString(pos, instructions, instructionAnalyses, sb, true, useMarkdown);
+		positionToString(pos, snapshot.getInstructions(), snapshot.getInstructionAnalyses(), sb, true, useMarkdown);
 		if(sb.length() == 0) {
 			return "";
 		}
@@ -1214,7 +1824,7 @@ public class WALAServer extends WALAServerCore {
 
 		String name = "";
 		try {
-			name = new SourceBuffer(getNearest(values.get(pos.getURL()), pos)).toString();
+			name = sourceCode(snapshot.getTexts(), values.get(pos.getURL()).nearest(pos));
 			name = compactName(name);
 			if (!name.isEmpty()) {
 				if (useMarkdown) {
@@ -1233,10 +1843,12 @@ public class WALAServer extends WALAServerCore {
 
 	public String toString() {
 		StringBuffer sb = new StringBuffer("WALA Server: ");
-		for(URL script : values.keySet()) {
-			sb.append(script + "\n");
-			for(Position pos : values.get(script).keySet()) {
-				sb.append(pos + ": " + positionToString(pos, false));
+		for(AnalysisSnapshot snapshot : snapshots.values()) {
+			for(URL script : snapshot.getValues().keySet()) {
+				sb.append(script + "\n");
+				for(Position pos : snapshot.getValues().get(script).positions()) {
+					sb.append(pos + ": " + positionToString(snapshot, pos, false));
+				}
 			}
 		}
 		return sb.toString();
@@ -15,7 +15,11 @@ import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -23,11 +27,15 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.NavigableMap;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.WeakHashMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 import org.apache.commons.io.input.TeeInputStream;
@@ -41,10 +49,13 @@ import org.eclipse.lsp4j.DiagnosticRelatedInformation;
 import org.eclipse.lsp4j.DidChangeConfigurationParams;
 import org.eclipse.lsp4j.DidChangeTextDocumentParams;
 import org.eclipse.lsp4j.DidChangeWatchedFilesParams;
+import org.eclipse.lsp4j.DidChangeWatchedFilesRegistrationOptions;
 import org.eclipse.lsp4j.DidCloseTextDocumentParams;
 import org.eclipse.lsp4j.DidOpenTextDocumentParams;
 import org.eclipse.lsp4j.DidSaveTextDocumentParams;
 import org.eclipse.lsp4j.ExecuteCommandOptions;
+import org.eclipse.lsp4j.FileEvent;
+import org.eclipse.lsp4j.FileSystemWatcher;
 import org.eclipse.lsp4j.Hover;
 import org.eclipse.lsp4j.InitializeParams;
 import org.eclipse.lsp4j.InitializeResult;
@@ -55,6 +66,8 @@ import org.eclipse.lsp4j.MessageParams;
 import org.eclipse.lsp4j.MessageType;
 import org.eclipse.lsp4j.PublishDiagnosticsParams;
 import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.Registration;
+import org.eclipse.lsp4j.RegistrationParams;
 import org.eclipse.lsp4j.ServerCapabilities;
 import org.eclipse.lsp4j.ShowMessageRequestParams;
 import org.eclipse.lsp4j.TextDocumentItem;
@@ -82,8 +95,8 @@ public class WALAServerCore implements LanguageClientAware, LanguageServer {
 	protected final boolean logging;
 	protected LanguageClient client;
 	protected final Map<String,String> savedNames = HashMapFactory.make();
-	protected final Map<String,List<CodeLens>> codeLenses = HashMapFactory.make();
-	protected final Map<String,NavigableMap<Position,String>> hovers = HashMapFactory.make();
+	protected final Map<String,List<CodeLens>> codeLenses = new ConcurrentHashMap<>();
+	protected final Map<String,PositionIndex<String>> hovers = new ConcurrentHashMap<>();
 	protected String[] rootUris;
 	
 	public interface WALAServerAnalysis {
@@ -95,8 +108,37 @@ public class WALAServerCore implements LanguageClientAware, LanguageServer {
 			Consumer<AnalysisError> callback);
 	}
 	
-	protected final Map<String, Map<String,Module>> languageSources = HashMapFactory.make();
-	protected final Map<String, Set<WALAServerAnalysis>> languageAnalyses = HashMapFactory.make();
+	protected final Map<String, Map<String,Module>> languageSources = new ConcurrentHashMap<>();
+	protected final Map<String, Set<WALAServerAnalysis>> languageAnalyses = new ConcurrentHashMap<>();
+	protected final Map<String, LSPDocument> documents = new ConcurrentHashMap<>();
+	protected final AnalysisScheduler scheduler = new AnalysisScheduler(this::analyze);
+	private final Map<String, AnalysisMonitor> runningAnalyses = new ConcurrentHashMap<>();
+	// the documents each language last published hovers and code lenses for
+	private final Map<String, Set<String>> resultUris = new ConcurrentHashMap<>();
+	// fingerprints of the diagnostics last published for each client uri, by language
+	private final Map<String, Map<String, Long>> publishedDiagnostics = HashMapFactory.make();
+	// the diagnostics last published for each language, and how their uris were given to the client
+	private final Map<String, Pair<Map<String, List<Diagnostic>>, Function<String, String>>> lastDiagnostics = HashMapFactory.make();
+	// the source digests of the last completed analysis of each language
+	private final Map<String, Map<String, String>> analyzedDigests = new ConcurrentHashMap<>();
+	private final Map<Module, String> moduleDigests = new WeakHashMap<>();
+	// compares digests for cancelling stale analyses, so that edits on the message thread need not
+	private final ExecutorService stalenessChecker = Executors.newSingleThreadExecutor((r) -> {
+		Thread t = new Thread(r, "WALA staleness check");
+		t.setDaemon(true);
+		return t;
+	});
+	private final Set<String> pendingStalenessChecks = ConcurrentHashMap.newKeySet();
+	// the language of the files with each extension, for indexing the workspace
+	protected final Map<String, String> extensionLanguages = new ConcurrentHashMap<>();
+	protected final WorkspaceIndexer indexer = new WorkspaceIndexer(this::languageOf, this::addIndexedSources);
+	// whether the client lets the server register the files it wants to hear about
+	private volatile boolean dynamicFileWatching = false;
+	private volatile Executor analysisExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), (r) -> {
+		Thread t = new Thread(r, "WALA checker");
+		t.setDaemon(true);
+		return t;
+	});
 
 	public WALAServerCore(boolean logging) {
 		this.logging = logging;
@@ -107,19 +149,261 @@ public class WALAServerCore implements LanguageClientAware, LanguageServer {
 	}
 	
 	public void addAnalysis(String language, WALAServerAnalysis analysis) {
-		if (! languageAnalyses.containsKey(language)) {
-			languageAnalyses.put(language, HashSetFactory.make());
+		languageAnalyses.computeIfAbsent(language, (l) -> Collections.newSetFromMap(new ConcurrentHashMap<>())).add(analysis);
+	}
+
+	/**
+	 * index the files of the workspace whose names end in .extension as
+	 * sources of language
+	 */
+	public void addLanguageExtension(String language, String extension) {
+		extensionLanguages.put(extension, language);
+	}
+
+	/**
+	 * @return the language of a file by its extension, or null if it is not
+	 *   a source of any
+	 */
+	protected String languageOf(Path file) {
+		Path name = file.getFileName();
+		if (name == null) {
+			return null;
 		}
+		String n = name.toString();
+		int dot = n.lastIndexOf('.');
+		return dot < 0? null: extensionLanguages.get(n.substring(dot + 1));
+	}
+
+	/**
+	 * add a batch of indexed files to the sources of a language; documents
+	 * the editor has open keep the text the editor sent
+	 */
+	protected void addIndexedSources(String language, List<FileModule> modules) {
+		boolean changed = false;
+		for(FileModule module : modules) {
+			if (! documents.containsKey(module.getName())) {
+				changed |= replaceSource(language, module.getName(), module);
+			}
+		}
+		if (changed) {
+			cancelStaleAnalysis(language);
+			trigger(language);
+		}
+	}
 
-		languageAnalyses.get(language).add(analysis);
+	/**
+	 * @return the module of a document as it is on disk, if it is a file of
+	 *   the workspace that still exists
+	 */
+	protected FileModule indexedFile(String uri) {
+		try {
+			Path file = Paths.get(new URI(uri));
+			return indexer.isIndexed(file)? indexer.read(file): null;
+		} catch (URISyntaxException | IllegalArgumentException | FileSystemNotFoundException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * remember the roots of the workspace and what the client can tell about
+	 * changes to its files, and start indexing them in the background
+	 */
+	protected void initializeWorkspace(InitializeParams params) {
+		dynamicFileWatching =
+			params.getCapabilities() != null &&
+			params.getCapabilities().getWorkspace() != null &&
+			params.getCapabilities().getWorkspace().getDidChangeWatchedFiles() != null &&
+			Boolean.TRUE.equals(params.getCapabilities().getWorkspace().getDidChangeWatchedFiles().getDynamicRegistration());
+
+		Set<String> roots = HashSetFactory.make();
+		if (params.getRootUri() != null) {
+			roots.add(params.getRootUri());
+		}
+		if (params.getWorkspaceFolders() != null) {
+			params.getWorkspaceFolders().forEach((folder) -> {
+				roots.add(folder.getUri());
+			});
+		}
+		rootUris = roots.toArray(new String[ roots.size() ]);
+
+		if (! extensionLanguages.isEmpty()) {
+			List<Path> paths = new LinkedList<>();
+			for(String root : rootUris) {
+				try {
+					paths.add(Paths.get(new URI(root)).toAbsolutePath().normalize());
+				} catch (URISyntaxException | IllegalArgumentException | FileSystemNotFoundException e) {
+					System.err.println("cannot index " + root + ": " + e);
+				}
+			}
+			indexer.index(paths);
+		}
+	}
+
+	/**
+	 * Bring the sources up to date with files that changed on disk.  Only
+	 * files the editor does not have open are affected, the files are read
+	 * again in the background, and only the sources whose contents really
+	 * changed are replaced, so only the languages they belong to are
+	 * analyzed again, once for the whole batch of changes.
+	 */
+	protected void filesChanged(List<FileEvent> changes) {
+		Set<Path> files = HashSetFactory.make();
+		List<Path> directories = new LinkedList<>();
+		for(FileEvent change : changes) {
+			String uri = Util.mangleUri(change.getUri());
+			if (documents.containsKey(uri)) {
+				continue;
+			}
+			try {
+				Path file = Paths.get(new URI(uri));
+				if (Files.isDirectory(file)) {
+					directories.add(file);
+				} else if (languageOf(file) != null || !Files.exists(file)) {
+					// a missing file may have been a directory of sources
+					files.add(file);
+				}
+			} catch (URISyntaxException | IllegalArgumentException | FileSystemNotFoundException e) {
+				// not a file of the workspace
+			}
+		}
+
+		if (! directories.isEmpty() && !extensionLanguages.isEmpty()) {
+			indexer.index(directories);
+		}
+		if (! files.isEmpty()) {
+			indexer.refresh(files).thenAccept((modules) -> updateSources(files, modules));
+		}
+	}
+
+	private void updateSources(Set<Path> files, Map<Path, FileModule> modules) {
+		Set<String> changed = HashSetFactory.make();
+		for(Path file : files) {
+			String uri = Util.canonicalUri(file);
+			if (documents.containsKey(uri)) {
+				continue;
+			}
+			FileModule module = modules.get(file);
+			String language = languageOf(file);
+			if (module != null) {
+				if (language != null && replaceSource(language, uri, module)) {
+					changed.add(language);
+				}
+			} else {
+				// deleted, with whatever it contained
+				String prefix = uri.endsWith("/")? uri: uri + "/";
+				for(Entry<String, Map<String, Module>> sl : languageSources.entrySet()) {
+					for(String source : new ArrayList<>(sl.getValue().keySet())) {
+						if ((source.equals(uri) || source.startsWith(prefix)) && !documents.containsKey(source)) {
+							sl.getValue().remove(source);
+							clearDiagnostics(source);
+							changed.add(sl.getKey());
+						}
+					}
+				}
+			}
+		}
+		for(String language : changed) {
+			cancelStaleAnalysis(language);
+			if (! languageSources.get(language).isEmpty()) {
+				trigger(language);
+			}
+		}
+	}
+
+	/**
+	 * ask the client to report changes to the source files of the
+	 * workspace, if it allows that
+	 */
+	protected void watchSourceFiles() {
+		if (dynamicFileWatching && !extensionLanguages.isEmpty()) {
+			List<FileSystemWatcher> watchers = new LinkedList<>();
+			for(String extension : extensionLanguages.keySet()) {
+				watchers.add(new FileSystemWatcher("**/*." + extension));
+			}
+			Registration registration = new Registration("wala-watched-files", "workspace/didChangeWatchedFiles", new DidChangeWatchedFilesRegistrationOptions(watchers));
+			client.registerCapability(new RegistrationParams(Collections.singletonList(registration)));
+		}
+	}
+
+	/**
+	 * tell the client to drop the diagnostics of a document, under every
+	 * uri they may have been published for it
+	 */
+	protected synchronized void clearDiagnostics(String document) {
+		for(String uri : forgetDiagnostics(document)) {
+			PublishDiagnosticsParams diagnostics = new PublishDiagnosticsParams();
+			diagnostics.setUri(uri);
+			client.publishDiagnostics(diagnostics);
+		}
+	}
+
+	/**
+	 * Set the executor on which the analyses of a language run; they are
+	 * independent of each other, so by default they run in parallel, one
+	 * thread per processor.
+	 */
+	public void setAnalysisExecutor(Executor executor) {
+		this.analysisExecutor = executor;
 	}
 	
+	/**
+	 * @return the content digest key of a module; modules are never changed
+	 *   once made, so this is computed once per module
+	 */
+	protected String digest(Module module) {
+		synchronized (moduleDigests) {
+			String digest = moduleDigests.get(module);
+			if (digest == null) {
+				digest = ModuleDigest.key(module);
+				moduleDigests.put(module, digest);
+			}
+			return digest;
+		}
+	}
+
+	/**
+	 * make file the source of the document url; this is called for every
+	 * edit, so it does not look at the contents
+	 * 
+	 * @return false if file already was the source of the document
+	 */
 	protected boolean addSource(String language, String url, Module file) {
-		if (! languageSources.containsKey(language)) {
-			languageSources.put(language, HashMapFactory.make());
+		Map<String, Module> sources = languageSources.computeIfAbsent(language, (l) -> new ConcurrentHashMap<>());
+		return sources.put(url, file) != file;
+	}
+
+	/**
+	 * make file the source of the document url unless its source already
+	 * has the same contents, which is then kept; this takes the digests of
+	 * both, so it is not for the message thread
+	 * 
+	 * @return whether the contents of the source changed
+	 */
+	protected boolean replaceSource(String language, String url, Module file) {
+		Map<String, Module> sources = languageSources.computeIfAbsent(language, (l) -> new ConcurrentHashMap<>());
+		Module old = sources.get(url);
+		if (old == file || (old != null && digest(old).equals(digest(file)))) {
+			return false;
 		}
+		sources.put(url, file);
+		return true;
+	}
 
-		return languageSources.get(language).put(url, file) != file;
+	/**
+	 * @return the modules of the given language as they are right now; the
+	 *   editor may keep changing sources while an analysis of this copy runs
+	 */
+	protected Collection<Module> getSources(String language) {
+		Map<String, Module> sources = languageSources.get(language);
+		return sources == null? Collections.emptyList(): new ArrayList<>(sources.values());
+	}
+
+	/**
+	 * Set how long triggers wait for further triggers of the same language
+	 * before an analysis is started.
+	 */
+	public void setAnalysisDelay(long millis) {
+		scheduler.setDelay(millis);
 	}
 
 	protected static URI getPositionUri(Position pos) {
@@ -162,45 +446,291 @@ public class WALAServerCore implements LanguageClientAware, LanguageServer {
 		this.client = client;
 	}
 	
+	/**
+	 * @return the current content digest of each source of a language
+	 */
+	protected Map<String, String> getSourceDigests(String language) {
+		Map<String, String> digests = HashMapFactory.make();
+		Map<String, Module> sources = languageSources.get(language);
+		if (sources != null) {
+			sources.forEach((uri, module) -> digests.put(uri, digest(module)));
+		}
+		return digests;
+	}
+
+	/**
+	 * record that a run completed and its results were published
+	 */
+	protected void analyzed(AnalysisMonitor monitor) {
+		analyzedDigests.put(monitor.getLanguage(), monitor.getDigests());
+	}
+
+	/**
+	 * @return whether the last completed run of a language analyzed exactly
+	 *   its current sources
+	 */
+	protected boolean isAnalyzed(String language) {
+		Map<String, String> digests = analyzedDigests.get(language);
+		return digests != null && digests.equals(getSourceDigests(language));
+	}
+
+	/**
+	 * forget which sources were analyzed, since something other than the
+	 * sources has changed that the results depend on
+	 */
+	protected void invalidateAnalyses() {
+		analyzedDigests.clear();
+	}
+
+	/**
+	 * schedule an analysis of a language; the digests of its sources are
+	 * only compared once the run starts, after the debounce delay, and if
+	 * they are exactly what it last analyzed, its results stand and are only
+	 * published again where the client has been told to clear them
+	 */
+	protected void trigger(String language) {
+		scheduler.schedule(language);
+	}
+
+	/**
+	 * Begin an analysis run of the given language.  This must be called
+	 * before the sources are read, so that edits made while they are being
+	 * read are detected as well.
+	 */
+	protected AnalysisMonitor startAnalysis(String language) {
+		AnalysisMonitor monitor = new AnalysisMonitor(language, getSourceDigests(language));
+		AnalysisMonitor previous = runningAnalyses.put(language, monitor);
+		if (previous != null) {
+			previous.cancel();
+		}
+		return monitor;
+	}
+
+	protected void endAnalysis(AnalysisMonitor monitor) {
+		runningAnalyses.remove(monitor.getLanguage(), monitor);
+	}
+
+	/**
+	 * @return whether the sources still have the contents the run started from
+	 */
+	protected boolean isCurrent(AnalysisMonitor monitor) {
+		return !monitor.isCanceled() && monitor.getDigests().equals(getSourceDigests(monitor.getLanguage()));
+	}
+
+	/**
+	 * cancel the running analysis of the given language, if its sources have
+	 * changed since it started; this takes the digests of the sources
+	 */
+	protected void cancelStaleAnalysis(String language) {
+		AnalysisMonitor monitor = runningAnalyses.get(language);
+		if (monitor != null && !isCurrent(monitor)) {
+			monitor.cancel();
+		}
+	}
+
+	/**
+	 * note that sources of a language were replaced; whether that makes its
+	 * running analysis stale is checked in the background, and checks that
+	 * are requested while one is waiting are merged into it
+	 */
+	protected void sourcesReplaced(String language) {
+		if (pendingStalenessChecks.add(language)) {
+			stalenessChecker.execute(() -> {
+				pendingStalenessChecks.remove(language);
+				cancelStaleAnalysis(language);
+			});
+		}
+	}
+
 	public void analyze(String language) {
-		Collection<Module> sources = languageSources.get(language).values();
 		if (languageAnalyses.containsKey(language) && languageSources.containsKey(language)) {
-			Map<String, List<Diagnostic>> diags = HashMapFactory.make();
-			languageAnalyses.get(language).forEach((analysis) -> {
-				analysis.analyze(sources, (error) -> {
-					switch (error.kind()) {
-					case CodeLens:
-						processCodeLens(analysis, error);
-						break;
-					case Diagnostic:
-						processDiagnostic(diags, analysis, error);
-						break;
-					case Hover:
-						processHover(analysis, error);
-						break;
+			if (isAnalyzed(language)) {
+				republishDiagnostics(language);
+				return;
+			}
+			AnalysisMonitor monitor = startAnalysis(language);
+			try {
+				Collection<Module> sources = Collections.unmodifiableCollection(getSources(language));
+				List<Pair<WALAServerAnalysis, List<AnalysisError>>> results = new ArrayList<>();
+				List<CompletableFuture<Void>> running = new ArrayList<>();
+				for(WALAServerAnalysis analysis : languageAnalyses.get(language)) {
+					// each analysis reports into its own buffer, so they need not wait for each other
+					List<AnalysisError> errors = Collections.synchronizedList(new ArrayList<>());
+					results.add(Pair.make(analysis, errors));
+					running.add(CompletableFuture.runAsync(() -> {
+						if (! monitor.isCanceled()) {
+							analysis.analyze(sources, errors::add);
+						}
+					}, analysisExecutor).exceptionally((e) -> {
+						System.err.println("analysis " + analysis.source() + " of " + language + " failed: " + e);
+						e.printStackTrace();
+						return null;
+					}));
+				}
+				CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[ running.size() ])).join();
+
+				if (! isCurrent(monitor)) {
+					return;
+				}
+
+				Map<String, List<Diagnostic>> diags = HashMapFactory.make();
+				Map<String, List<CodeLens>> lenses = HashMapFactory.make();
+				Map<String, PositionIndex.Builder<String>> hoverText = HashMapFactory.make();
+				for(Pair<WALAServerAnalysis, List<AnalysisError>> result : results) {
+					WALAServerAnalysis analysis = result.fst;
+					synchronized (result.snd) {
+						for(AnalysisError error : result.snd) {
+							switch (error.kind()) {
+							case CodeLens:
+								processCodeLens(lenses, analysis, error);
+								break;
+							case Diagnostic:
+								processDiagnostic(diags, analysis, error);
+								break;
+							case Hover:
+								processHover(hoverText, analysis, error);
+								break;
+							}
+						}
 					}
-				});
-			});
-			
-			publishDiagnostics(diags);
+				}
+
+				publishResults(language, lenses, hoverText);
+				publishDiagnostics(language, diags, (uri) -> Util.unmangleUri(uri).replace("//", "///"));//the devil "/"
+				analyzed(monitor);
+			} finally {
+				endAnalysis(monitor);
+			}
 		}
 	}
 
-	private void publishDiagnostics(Map<String, List<Diagnostic>> diags) {
+	/**
+	 * replace the code lenses and hovers of the documents of a language with
+	 * those of its latest analysis; each document is replaced as a whole
+	 */
+	private void publishResults(String language, Map<String, List<CodeLens>> lenses, Map<String, PositionIndex.Builder<String>> hoverText) {
+		Set<String> uris = HashSetFactory.make(lenses.keySet());
+		uris.addAll(hoverText.keySet());
+		codeLenses.putAll(lenses);
+		hoverText.forEach((uri, text) -> hovers.put(uri, text.build()));
+		Set<String> previous = resultUris.put(language, uris);
+		if (previous != null) {
+			for(String uri : previous) {
+				if (! lenses.containsKey(uri)) {
+					codeLenses.remove(uri);
+				}
+				if (! hoverText.containsKey(uri)) {
+					hovers.remove(uri);
+				}
+			}
+		}
+	}
+
+	private static long fingerprint(Collection<Diagnostic> diags) {
+		// independent of order, since the order of diagnostics does not matter to clients
+		long fp = diags.size();
+		for(Diagnostic d : diags) {
+			long h = d.hashCode() * 0x9E3779B97F4A7C15L;
+			fp += h ^ (h >>> 29);
+		}
+		return fp;
+	}
+
+	/**
+	 * Publish the diagnostics of a run of a language.  Duplicate diagnostics
+	 * are dropped, documents whose diagnostics are the same as the last
+	 * published ones are skipped, and documents that had diagnostics in the
+	 * last run but have none now are published as empty.
+	 * 
+	 * @param clientUri the uri to give the client for a document of diags;
+	 *   what was published is remembered by this uri
+	 */
+	protected synchronized void publishDiagnostics(String language, Map<String, List<Diagnostic>> diags, Function<String, String> clientUri) {
+		Map<String, Long> previous = publishedDiagnostics.getOrDefault(language, Collections.emptyMap());
+		Map<String, Long> current = HashMapFactory.make();
 		for (Map.Entry<String, List<Diagnostic>> d : diags.entrySet()) {
-			PublishDiagnosticsParams pdp = new PublishDiagnosticsParams();
 			if (d.getValue() != null && !d.getValue().isEmpty()) {
-				pdp.setUri(Util.unmangleUri(d.getKey()).replace("//", "///"));//the devil "/"
-				pdp.setDiagnostics(d.getValue());
+				String uri = clientUri.apply(d.getKey());
+				Set<Diagnostic> unique = HashSetFactory.make(d.getValue());
+				long fp = fingerprint(unique);
+				current.put(uri, fp);
+				Long old = previous.get(uri);
+				if (old == null || old != fp) {
+					PublishDiagnosticsParams pdp = new PublishDiagnosticsParams();
+					pdp.setUri(uri);
+					pdp.setDiagnostics(new LinkedList<>(unique));
+					client.publishDiagnostics(pdp);
+				}
+			}
+		}
+		for(String uri : previous.keySet()) {
+			if (! current.containsKey(uri)) {
+				PublishDiagnosticsParams pdp = new PublishDiagnosticsParams();
+				pdp.setUri(uri);
+				pdp.setDiagnostics(Collections.emptyList());
 				client.publishDiagnostics(pdp);
 			}
 		}
+		publishedDiagnostics.put(language, current);
+		lastDiagnostics.put(language, Pair.make(diags, clientUri));
+	}
+
+	/**
+	 * publish the last diagnostics of a language again where they changed
+	 * or were forgotten since
+	 */
+	protected synchronized void republishDiagnostics(String language) {
+		Pair<Map<String, List<Diagnostic>>, Function<String, String>> last = lastDiagnostics.get(language);
+		if (last != null) {
+			publishDiagnostics(language, last.fst, last.snd);
+		}
+	}
+
+	/**
+	 * @return how the last run of a language gave the uris of documents to
+	 *   the client
+	 */
+	private Function<String, String> clientUri(String language) {
+		Pair<Map<String, List<Diagnostic>>, Function<String, String>> last = lastDiagnostics.get(language);
+		return last != null? last.snd: Util::unmangleUri;
+	}
+
+	/**
+	 * publish diagnostics for one document ahead of the next run of its
+	 * language, which then replaces or clears them as if it had published
+	 * them itself
+	 */
+	protected synchronized void publishProvisionalDiagnostics(String language, String document, List<Diagnostic> diags) {
+		String uri = clientUri(language).apply(document);
+		Set<Diagnostic> unique = HashSetFactory.make(diags);
+		PublishDiagnosticsParams pdp = new PublishDiagnosticsParams();
+		pdp.setUri(uri);
+		pdp.setDiagnostics(new LinkedList<>(unique));
+		client.publishDiagnostics(pdp);
+		publishedDiagnostics.computeIfAbsent(language, (l) -> HashMapFactory.make()).put(uri, fingerprint(unique));
 	}
 
-	private void processHover(WALAServerAnalysis analysis, AnalysisError error) {
+	/**
+	 * forget what was published for a document whose diagnostics the client
+	 * is told to clear, so the next run publishes them again
+	 * 
+	 * @return the client uris of the document, as each language gives them
+	 */
+	private Set<String> forgetDiagnostics(String document) {
+		Set<String> uris = HashSetFactory.make();
+		uris.add(Util.unmangleUri(document));
+		for(Map.Entry<String, Map<String, Long>> published : publishedDiagnostics.entrySet()) {
+			String uri = clientUri(published.getKey()).apply(document);
+			published.getValue().remove(uri);
+			uris.add(uri);
+		}
+		return uris;
+	}
+
+	private void processHover(Map<String, PositionIndex.Builder<String>> hovers, WALAServerAnalysis analysis, AnalysisError error) {
 		String uri = Util.unmangleUri(getPositionUri(error.position()).toString());
 		if (! hovers.containsKey(uri)) {
-			hovers.put(uri, new TreeMap<>());
+			hovers.put(uri, new PositionIndex.Builder<>());
 		}
 		
 		hovers.get(uri).put(error.position(), error.toString(false));
@@ -208,7 +738,7 @@ public class WALAServerCore implements LanguageClientAware, LanguageServer {
 		System.err.println("hover at " + uri + ": " + error.toString(false));
 	}
 	
-	private void processCodeLens(WALAServerAnalysis analysis, AnalysisError error) {
+	private void processCodeLens(Map<String, List<CodeLens>> codeLenses, WALAServerAnalysis analysis, AnalysisError error) {
 		Range where = locationFromWALA(error.position()).getRange();
 		CodeLens cl = new CodeLens();
 		boolean isRepair = error.repair() != null;
@@ -262,6 +792,7 @@ public class WALAServerCore implements LanguageClientAware, LanguageServer {
 			msg.setType(MessageType.Log);
 			client.logMessage(msg);
 		}
+		watchSourceFiles();
 	}
 
 	@Override
@@ -298,8 +829,7 @@ public class WALAServerCore implements LanguageClientAware, LanguageServer {
 
 			@Override
 			public void didChangeWatchedFiles(DidChangeWatchedFilesParams params) {
-				// TODO Auto-generated method stub
-
+				filesChanged(params.getChanges());
 			}
 
 			@Override
@@ -313,7 +843,12 @@ public class WALAServerCore implements LanguageClientAware, LanguageServer {
 	protected Module makeModule(DidOpenTextDocumentParams params) {
 		TextDocumentItem doc = params.getTextDocument();
 		String uri = Util.mangleUri(doc.getUri());
-		return new LSPStringModule(uri, doc.getText());
+		LSPDocument document = documents.get(uri);
+		return makeModule(uri, document != null? document.getText(): Rope.of(doc.getText()));
+	}
+
+	protected Module makeModule(String uri, Rope text) {
+		return new LSPStringModule(uri, text);
 	}
 
 	protected class WALATextDocumentService implements TextDocumentService {
@@ -327,32 +862,47 @@ public class WALAServerCore implements LanguageClientAware, LanguageServer {
 			TextDocumentItem doc = params.getTextDocument();
 			String language = doc.getLanguageId();
 			String uri = Util.mangleUri(doc.getUri());
+			documents.put(uri, new LSPDocument(language, doc.getVersion(), Rope.of(doc.getText())));
 			if (addSource(language, uri, makeModule(params))) {
-				analyze(language);
+				sourcesReplaced(language);
+				trigger(language);
 			}
 		}
 		
 		@Override
 		public void didChange(DidChangeTextDocumentParams params) {
 			String uri = Util.mangleUri(params.getTextDocument().getUri());
-			clearDiagnostics(uri);
-		}
-
-		private void clearDiagnostics(String uri) {
-			PublishDiagnosticsParams diagnostics = new PublishDiagnosticsParams();
-			diagnostics.setUri(Util.unmangleUri(uri));
-
-			client.publishDiagnostics(diagnostics);
+			LSPDocument document = documents.get(uri);
+			if (document != null) {
+				Integer version = params.getTextDocument().getVersion();
+				document = document.apply(version != null? version: document.getVersion() + 1, params.getContentChanges());
+				documents.put(uri, document);
+				if (addSource(document.getLanguageId(), uri, makeModule(uri, document.getText()))) {
+					sourcesReplaced(document.getLanguageId());
+					clearDiagnostics(uri);
+				}
+			}
 		}
 
 		@Override
 		public void didClose(DidCloseTextDocumentParams params) {
 			String uri = Util.mangleUri(params.getTextDocument().getUri());
+			documents.remove(uri);
 			for(Entry<String, Map<String, Module>> sl : languageSources.entrySet()) {
 				if (sl.getValue().containsKey(uri)) {
+					FileModule onDisk = indexedFile(uri);
+					if (onDisk != null) {
+						// still a source of the workspace, now as it was last saved
+						if (addSource(sl.getKey(), uri, onDisk)) {
+							sourcesReplaced(sl.getKey());
+							trigger(sl.getKey());
+						}
+						continue;
+					}
 					sl.getValue().remove(uri);
+					sourcesReplaced(sl.getKey());
 					if (! sl.getValue().isEmpty()) {
-						analyze(sl.getKey());
+						trigger(sl.getKey());
 					} else {
 						clearDiagnostics(uri);
 					}
@@ -365,7 +915,7 @@ public class WALAServerCore implements LanguageClientAware, LanguageServer {
 			String uri = Util.mangleUri(params.getTextDocument().getUri());
 			for(Entry<String, Map<String, Module>> sl : languageSources.entrySet()) {
 				if (sl.getValue().containsKey(uri)) {
-					analyze(sl.getKey());
+					trigger(sl.getKey());
 				}
 			}
 		}
@@ -375,7 +925,7 @@ public class WALAServerCore implements LanguageClientAware, LanguageServer {
 			String uri = Util.mangleUri(params.getTextDocument().getUri());
 			for(Entry<String, Map<String, Module>> sl : languageSources.entrySet()) {
 				if (sl.getValue().containsKey(uri)) {
-					analyze(sl.getKey());
+					trigger(sl.getKey());
 				}
 			}
 		}
@@ -399,10 +949,11 @@ public class WALAServerCore implements LanguageClientAware, LanguageServer {
 			try {
 				String uri = Util.mangleUri(position.getTextDocument().getUri());
 				URL url = new URI(uri).toURL();
-				if (hovers.containsKey(uri)) {
+				PositionIndex<String> text = hovers.get(uri);
+				if (text != null && text.size() > 0) {
 					Position lookupPos = lookupPos(position.getPosition(), url);
-					Position loc = getNearest(hovers.get(uri), lookupPos);
-					String message = hovers.get(uri).get(loc);
+					Position loc = text.nearest(lookupPos);
+					String message = text.get(loc);
 					reply.setContents(Collections.singletonList(Either.forLeft(message)));
 					reply.setRange(locationFromWALA(loc).getRange());
 				}
@@ -502,20 +1053,11 @@ public class WALAServerCore implements LanguageClientAware, LanguageServer {
 
 	@Override
 	public CompletableFuture<InitializeResult> initialize(InitializeParams params) {
-		Set<String> roots = HashSetFactory.make();
-		if (params.getRootUri() != null) {
-			roots.add(params.getRootUri());
-		}
-		if (params.getWorkspaceFolders() != null) {
-			params.getWorkspaceFolders().forEach((folder) -> {
-				roots.add(folder.getName());
-			});
-		}
-		rootUris = roots.toArray(new String[ roots.size() ]);
+		initializeWorkspace(params);
 		
 		final ServerCapabilities caps = new ServerCapabilities();
 		caps.setHoverProvider(true);
-		caps.setTextDocumentSync(TextDocumentSyncKind.Full);
+		caps.setTextDocumentSync(TextDocumentSyncKind.Incremental);
 		CodeLensOptions cl = new CodeLensOptions();
 		cl.setResolveProvider(true);
 		caps.setCodeLensProvider(cl);
@@ -577,35 +1119,4 @@ public class WALAServerCore implements LanguageClientAware, LanguageServer {
 		};
 	}
 
-	private boolean within(Position a, Position b) {
-		return (a.getFirstLine() < b.getFirstLine() ||
-				(a.getFirstLine() == b.getFirstLine() &&
-				a.getFirstCol() <= b.getFirstCol())) 
-				&&
-				(a.getLastLine() > b.getLastLine() ||
-						(a.getLastLine() == b.getLastLine() &&
-						a.getLastCol() >= b.getLastCol()));
-	}
-
-	protected Position getNearest(NavigableMap<Position, ?> scriptPositions, Position pos) {
-		Entry<Position, ?> entry = scriptPositions.floorEntry(pos);
-		if (entry == null) {
-			return null;
-		}
-	
-		Entry<Position, ?> prev = entry;
-		while (prev != null && within(entry.getKey(), prev.getKey()) && prev.getKey().getLastCol() >= pos.getFirstCol()) {
-			entry = prev;
-			prev = scriptPositions.lowerEntry(entry.getKey());
-		}
-	
-		Entry<Position, ?> next = entry;
-		while (next != null && within(next.getKey(), pos) && next.getKey().getLastCol() <= entry.getKey().getLastCol()) {
-			entry = next;
-			next = scriptPositions.higherEntry(entry.getKey());
-		}
-	
-		return entry.getKey();		
-	}
-
 }
@@ -0,0 +1,38 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import org.eclipse.lsp4j.SymbolInformation;
+
+import com.ibm.wala.cast.tree.CAstSourcePositionMap.Position;
+import com.ibm.wala.types.MethodReference;
+
+class WalaSymbolInformation extends SymbolInformation {
+	private final MethodReference function;
+	private final Position namePosition;
+
+	WalaSymbolInformation(MethodReference function, Position namePosition) {
+		this.function = function;
+		this.namePosition = namePosition;
+	}
+
+	MethodReference getFunction() {
+		return function;
+	}
+
+	Position getNamePosition() {
+		return namePosition;
+	}
+
+	public String toString() {
+		return super.toString() + "(" + getFunction() + ")";
+	}
+}
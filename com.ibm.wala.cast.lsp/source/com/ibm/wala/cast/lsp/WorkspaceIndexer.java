@@ -0,0 +1,204 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.ibm.wala.util.collections.HashMapFactory;
+
+/**
+ * Reads the source files under the roots of the workspace in the
+ * background, so that analyses see the whole workspace rather than just
+ * the documents the editor has open.  The roots are walked, and their files
+ * read, in parallel; the modules are handed on in batches of a bounded
+ * size, grouped by language, as soon as each batch has been read.
+ *
+ * The indexer remembers the module of every file it read, and reads a file
+ * again only when its size or modification time changed.
+ */
+public class WorkspaceIndexer {
+	public static final int DEFAULT_BATCH_SIZE = 64;
+
+	private final Function<Path, String> languageOf;
+	private final BiConsumer<String, List<FileModule>> sink;
+	private final Map<Path, FileModule> indexed = new ConcurrentHashMap<>();
+	private final int parallelism = Runtime.getRuntime().availableProcessors();
+	private final ExecutorService coordinator = Executors.newSingleThreadExecutor((r) -> {
+		Thread t = new Thread(r, "WALA workspace indexer");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		return t;
+	});
+	private final ExecutorService readers = Executors.newFixedThreadPool(parallelism, (r) -> {
+		Thread t = new Thread(r, "WALA workspace reader");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		return t;
+	});
+	private volatile int batchSize = DEFAULT_BATCH_SIZE;
+
+	/**
+	 * @param languageOf the language of a file, or null if it is not a source
+	 * @param sink receives each batch of modules of one language
+	 */
+	public WorkspaceIndexer(Function<Path, String> languageOf, BiConsumer<String, List<FileModule>> sink) {
+		this.languageOf = languageOf;
+		this.sink = sink;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * index the files under roots in the background; indexing requests are
+	 * handled one at a time, in order
+	 */
+	public CompletableFuture<Void> index(Collection<Path> roots) {
+		return CompletableFuture.runAsync(() -> indexNow(roots), coordinator);
+	}
+
+	private void indexNow(Collection<Path> roots) {
+		List<CompletableFuture<List<Path>>> walks = new LinkedList<>();
+		for(Path root : roots) {
+			walks.add(CompletableFuture.supplyAsync(() -> sources(root), readers));
+		}
+		List<Path> files = new ArrayList<>();
+		for(CompletableFuture<List<Path>> walk : walks) {
+			files.addAll(walk.join());
+		}
+
+		// at most one batch per reader is in flight, so memory stays bounded
+		int size = Math.max(1, batchSize);
+		LinkedList<CompletableFuture<Void>> reading = new LinkedList<>();
+		for(int i = 0; i < files.size(); i += size) {
+			List<Path> batch = files.subList(i, Math.min(i + size, files.size()));
+			reading.add(CompletableFuture.runAsync(() -> deliver(batch), readers));
+			if (reading.size() >= parallelism) {
+				reading.removeFirst().join();
+			}
+		}
+		reading.forEach(CompletableFuture::join);
+	}
+
+	/**
+	 * read files again, in parallel, once any indexing requested earlier
+	 * is done; files that look unchanged are not read
+	 * 
+	 * @return the module of each of files that still exists
+	 */
+	public CompletableFuture<Map<Path, FileModule>> refresh(Collection<Path> files) {
+		return CompletableFuture.supplyAsync(() -> {
+			Map<Path, FileModule> result = new ConcurrentHashMap<>();
+			List<Path> all = new ArrayList<>(files);
+			int size = Math.max(1, batchSize);
+			List<CompletableFuture<Void>> reading = new LinkedList<>();
+			for(int i = 0; i < all.size(); i += size) {
+				List<Path> batch = all.subList(i, Math.min(i + size, all.size()));
+				reading.add(CompletableFuture.runAsync(() -> {
+					for(Path file : batch) {
+						FileModule module = read(file);
+						if (module != null) {
+							result.put(file, module);
+						}
+					}
+				}, readers));
+			}
+			reading.forEach(CompletableFuture::join);
+			return result;
+		}, coordinator);
+	}
+
+	/**
+	 * @return the source files under root, in the order they were found
+	 */
+	private List<Path> sources(Path root) {
+		try (Stream<Path> walk = Files.walk(root)) {
+			return walk
+				.filter((p) -> languageOf.apply(p) != null)
+				.filter(Files::isRegularFile)
+				.collect(Collectors.toList());
+		} catch (IOException | RuntimeException e) {
+			System.err.println("cannot index " + root + ": " + e);
+			return new LinkedList<>();
+		}
+	}
+
+	private void deliver(List<Path> batch) {
+		Map<String, List<FileModule>> byLanguage = HashMapFactory.make();
+		for(Path file : batch) {
+			FileModule module = read(file);
+			if (module != null) {
+				byLanguage.computeIfAbsent(languageOf.apply(file), (l) -> new LinkedList<>()).add(module);
+			}
+		}
+		byLanguage.forEach((language, modules) -> {
+			try {
+				sink.accept(language, modules);
+			} catch (RuntimeException e) {
+				System.err.println("cannot add indexed sources of " + language + ": " + e);
+			}
+		});
+	}
+
+	/**
+	 * @return the module of a file as it is now, reusing the module it was
+	 *   last read into if it looks unchanged, or null if it cannot be read
+	 */
+	public FileModule read(Path file) {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+			FileModule module = indexed.get(file);
+			if (module == null || !module.isCurrent(attributes)) {
+				module = FileModule.read(file, attributes);
+				indexed.put(file, module);
+			}
+			return module;
+		} catch (NoSuchFileException e) {
+			indexed.remove(file);
+			return null;
+		} catch (IOException e) {
+			System.err.println("cannot read " + file + ": " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return whether file was indexed, and has not been found missing since
+	 */
+	public boolean isIndexed(Path file) {
+		return indexed.containsKey(file);
+	}
+
+	/**
+	 * forget a file, e.g. one that was deleted
+	 */
+	public void forget(Path file) {
+		indexed.remove(file);
+	}
+}
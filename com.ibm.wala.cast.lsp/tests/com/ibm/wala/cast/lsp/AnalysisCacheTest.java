@@ -0,0 +1,204 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.eclipse.lsp4j.CodeLens;
+import org.eclipse.lsp4j.Command;
+import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.DiagnosticSeverity;
+import org.eclipse.lsp4j.Location;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.SymbolInformation;
+import org.eclipse.lsp4j.SymbolKind;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes random analysis cache entries and reads them back, and checks that
+ * damaged entry files are rejected.
+ */
+public class AnalysisCacheTest {
+	private static final String KEY = AnalysisCache.key("digest", "configuration");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * @return a string, or sometimes null; only for properties that may be null
+	 */
+	private static String string(Random random) {
+		return random.nextInt(8) == 0? null: text(random);
+	}
+
+	private static String text(Random random) {
+		StringBuilder sb = new StringBuilder();
+		for(int i = random.nextInt(12); i > 0; i--) {
+			// mostly ASCII, with some characters that take more than one byte
+			sb.append(random.nextInt(4) == 0? (char)(0x80 + random.nextInt(0x3000)): (char)(' ' + random.nextInt(95)));
+		}
+		return sb.toString();
+	}
+
+	private static Range range(Random random) {
+		int line = random.nextInt(100);
+		int character = random.nextInt(40);
+		return new Range(new Position(line, character), new Position(line + random.nextInt(3), random.nextInt(40)));
+	}
+
+	private static AnalysisCache.Entry entry(Random random) {
+		List<SymbolInformation> symbols = new LinkedList<>();
+		for(int i = random.nextInt(10); i > 0; i--) {
+			SymbolInformation s = new SymbolInformation();
+			s.setName(text(random));
+			s.setKind(SymbolKind.forValue(1 + random.nextInt(SymbolKind.values().length)));
+			s.setLocation(new Location(text(random), range(random)));
+			s.setContainerName(string(random));
+			symbols.add(s);
+		}
+
+		List<Diagnostic> diagnostics = new LinkedList<>();
+		for(int i = random.nextInt(10); i > 0; i--) {
+			Diagnostic d = new Diagnostic();
+			d.setRange(range(random));
+			int severity = random.nextInt(DiagnosticSeverity.values().length + 1);
+			d.setSeverity(severity == 0? null: DiagnosticSeverity.forValue(severity));
+			d.setSource(string(random));
+			d.setMessage(text(random));
+			diagnostics.add(d);
+		}
+
+		List<CodeLens> codeLenses = new LinkedList<>();
+		for(int i = random.nextInt(10); i > 0; i--) {
+			Command cmd = new Command(text(random), text(random));
+			if (random.nextBoolean()) {
+				cmd.setArguments(Collections.singletonList(String.valueOf(random.nextInt(1000))));
+			}
+			codeLenses.add(new CodeLens(range(random), cmd, null));
+		}
+
+		AnalysisCache.Entry entry = new AnalysisCache.Entry(symbols, diagnostics, codeLenses);
+		for(int i = random.nextInt(40); i > 0; i--) {
+			entry.addHover(range(random), random.nextBoolean(), "hover " + i + " " + text(random));
+		}
+		return entry;
+	}
+
+	private byte[] stored(AnalysisCache.Entry entry) throws IOException {
+		File dir = folder.newFolder();
+		new AnalysisCache(dir).store(KEY, entry);
+		return Files.readAllBytes(new File(dir, KEY + ".bin").toPath());
+	}
+
+	/**
+	 * @return what a new cache finds for an entry file holding bytes
+	 */
+	private AnalysisCache.Entry loaded(byte[] bytes) throws IOException {
+		File dir = folder.newFolder();
+		Files.write(new File(dir, KEY + ".bin").toPath(), bytes);
+		return new AnalysisCache(dir).load(KEY);
+	}
+
+	/**
+	 * @return bytes with its trailing checksum recomputed, so that it is
+	 *   only rejected if its contents do not make sense
+	 */
+	private static byte[] withChecksum(byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - 8);
+		ByteBuffer.wrap(bytes).putLong(bytes.length - 8, crc.getValue());
+		return bytes;
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		URL document = new URL("file:///test.js");
+		for(long seed = 0; seed < 50; seed++) {
+			Random random = new Random(seed);
+			AnalysisCache.Entry entry = entry(random);
+			AnalysisCache.Entry read = loaded(stored(entry));
+			assertNotNull(read);
+
+			assertEquals(entry.getSymbols(), read.getSymbols());
+			assertEquals(entry.getDiagnostics(), read.getDiagnostics());
+			assertEquals(entry.getCodeLenses(), read.getCodeLenses());
+
+			for(int q = 0; q < 200; q++) {
+				Position pos = new Position(random.nextInt(105), random.nextInt(45));
+				for(boolean useMarkdown : new boolean[] { false, true }) {
+					assertEquals(entry.hover(document, pos, useMarkdown), read.hover(document, pos, useMarkdown));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testTruncated() throws IOException {
+		byte[] bytes = stored(entry(new Random(1)));
+		for(int length = 0; length < bytes.length; length++) {
+			assertNull(loaded(Arrays.copyOf(bytes, length)));
+		}
+	}
+
+	@Test
+	public void testCorrupted() throws IOException {
+		byte[] bytes = stored(entry(new Random(2)));
+		for(int i = 0; i < bytes.length; i++) {
+			byte[] corrupted = bytes.clone();
+			corrupted[i] ^= 1 << (i % 8);
+			assertNull(loaded(corrupted));
+		}
+	}
+
+	@Test
+	public void testTrailingBytes() throws IOException {
+		byte[] bytes = stored(entry(new Random(3)));
+		assertNull(loaded(Arrays.copyOf(bytes, bytes.length + 1)));
+
+		byte[] padded = new byte[bytes.length + 4];
+		System.arraycopy(bytes, 0, padded, 0, bytes.length - 8);
+		System.arraycopy(bytes, bytes.length - 8, padded, bytes.length - 4, 8);
+		assertNull(loaded(withChecksum(padded)));
+	}
+
+	@Test
+	public void testBadContentsWithValidChecksum() throws IOException {
+		byte[] bytes = stored(entry(new Random(4)));
+		assertTrue(bytes.length > 16);
+
+		// magic, version and symbol count, in that order
+		for(int offset : new int[] { 0, 4, 8 }) {
+			for(int value : new int[] { -2, 0x7fffffff, 12345 }) {
+				byte[] corrupted = bytes.clone();
+				ByteBuffer.wrap(corrupted).putInt(offset, value);
+				assertNull(loaded(withChecksum(corrupted)));
+			}
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.Reader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ibm.wala.cast.tree.CAstSourcePositionMap.Position;
+import com.ibm.wala.cast.tree.impl.AbstractSourcePosition;
+
+/**
+ * Checks position indexes against a linear scan of randomly nested ranges.
+ */
+public class PositionIndexTest {
+	// offsets are laid out on lines of this many columns
+	private static final int COLUMNS = 50;
+
+	private static class Range extends AbstractSourcePosition {
+		private final int start;
+		private final int end;
+
+		private Range(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public int getFirstLine() {
+			return start / COLUMNS + 1;
+		}
+
+		@Override
+		public int getLastLine() {
+			return end / COLUMNS + 1;
+		}
+
+		@Override
+		public int getFirstCol() {
+			return start % COLUMNS;
+		}
+
+		@Override
+		public int getLastCol() {
+			return end % COLUMNS;
+		}
+
+		@Override
+		public int getFirstOffset() {
+			return -1;
+		}
+
+		@Override
+		public int getLastOffset() {
+			return -1;
+		}
+
+		@Override
+		public URL getURL() {
+			return null;
+		}
+
+		@Override
+		public Reader getReader() {
+			return null;
+		}
+
+		private List<Integer> key() {
+			List<Integer> key = new ArrayList<>();
+			key.add(start);
+			key.add(end);
+			return key;
+		}
+	}
+
+	/**
+	 * add properly nested ranges within [start, end], some of them more than
+	 * once, to ranges
+	 */
+	private static void nested(Random random, int start, int end, int depth, List<Range> ranges) {
+		int at = start;
+		while (depth > 0 && at < end && random.nextInt(4) != 0) {
+			int childStart = at + random.nextInt(Math.min(end - at, 10) + 1);
+			int childEnd = childStart + random.nextInt(end - childStart + 1);
+			ranges.add(new Range(childStart, childEnd));
+			if (random.nextInt(10) == 0) {
+				ranges.add(new Range(childStart, childEnd));
+			}
+			nested(random, childStart, childEnd, depth - 1, ranges);
+			at = childEnd;
+		}
+	}
+
+	/**
+	 * the innermost enclosing range or, when none encloses, the closest one
+	 * starting before, by looking at every range
+	 */
+	private static Range nearest(Map<List<Integer>, Range> ranges, Range pos) {
+		Range enclosing = null;
+		Range before = null;
+		for(Range r : ranges.values()) {
+			if (r.start <= pos.start) {
+				if (before == null || r.start > before.start || (r.start == before.start && r.end < before.end)) {
+					before = r;
+				}
+				if (r.end >= pos.end && (enclosing == null || r.start > enclosing.start || (r.start == enclosing.start && r.end < enclosing.end))) {
+					enclosing = r;
+				}
+			}
+		}
+		return enclosing != null? enclosing: before;
+	}
+
+	@Test
+	public void testRandomNesting() {
+		for(long seed = 0; seed < 200; seed++) {
+			Random random = new Random(seed);
+			int length = 1 + random.nextInt(2000);
+			List<Range> added = new ArrayList<>();
+			nested(random, 0, length, 1 + random.nextInt(8), added);
+
+			PositionIndex.Builder<Range> builder = new PositionIndex.Builder<>();
+			Map<List<Integer>, Range> model = new LinkedHashMap<>();
+			for(Range r : added) {
+				builder.put(r, r);
+				model.put(r.key(), r);
+			}
+			PositionIndex<Range> index = builder.build();
+
+			assertEquals(model.size(), index.size());
+			List<Range> sorted = new ArrayList<>(model.values());
+			sorted.sort(Comparator.<Range>comparingInt((r) -> r.start).thenComparing((r) -> -r.end));
+			assertEquals(sorted, index.positions());
+			index.forEach((p, v) -> assertSame(p, v));
+
+			for(Range r : added) {
+				assertSame(model.get(r.key()), index.get(new Range(r.start, r.end)));
+			}
+
+			for(int q = 0; q < 200; q++) {
+				int start = random.nextInt(length + 5);
+				int end = start + (random.nextBoolean()? 0: random.nextInt(length + 5 - start));
+				Range pos = new Range(start, end);
+				Range expected = nearest(model, pos);
+				assertSame(expected, index.nearest(pos));
+				assertSame(expected, index.nearestValue(pos));
+				assertSame(model.get(pos.key()), index.get(pos));
+				assertEquals(model.containsKey(pos.key()), index.containsKey(pos));
+			}
+		}
+	}
+
+	@Test
+	public void testEmpty() {
+		PositionIndex<String> index = new PositionIndex.Builder<String>().build();
+		Range pos = new Range(3, 4);
+		assertEquals(0, index.size());
+		assertNull(index.nearest(pos));
+		assertNull(index.nearestValue(pos));
+		assertNull(index.get(pos));
+	}
+}
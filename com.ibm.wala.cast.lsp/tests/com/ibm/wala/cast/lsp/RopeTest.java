@@ -0,0 +1,141 @@
+/******************************************************************************
+ * Copyright (c) 2018 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *****************************************************************************/
+package com.ibm.wala.cast.lsp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks ropes against a StringBuilder put through the same random edits.
+ */
+public class RopeTest {
+	private static final String ALPHABET = "ab\n";
+
+	private static String randomText(Random random, int maxLength) {
+		int length = random.nextInt(maxLength + 1);
+		StringBuilder text = new StringBuilder(length);
+		for(int i = 0; i < length; i++) {
+			text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+		}
+		return text.toString();
+	}
+
+	private static String read(Reader reader) throws IOException {
+		StringBuilder text = new StringBuilder();
+		char[] buffer = new char[97];
+		for(int n; (n = reader.read(buffer, 0, buffer.length)) != -1; ) {
+			text.append(buffer, 0, n);
+		}
+		return text.toString();
+	}
+
+	private static int lineStart(String text, int line) {
+		int offset = 0;
+		for(int i = 0; i < line; i++) {
+			int lineBreak = text.indexOf('\n', offset);
+			if (lineBreak == -1) {
+				return text.length();
+			}
+			offset = lineBreak + 1;
+		}
+		return offset;
+	}
+
+	private static int offsetOf(String text, int line, int character) {
+		int start = lineStart(text, line);
+		int lineBreak = text.indexOf('\n', start);
+		int end = lineBreak == -1 || start == text.length()? text.length(): lineBreak;
+		return Math.min(start + Math.max(character, 0), end);
+	}
+
+	private static void check(String expected, Rope rope, Random random) throws IOException {
+		assertEquals(expected.length(), rope.length());
+		assertEquals(expected, rope.toString());
+		assertEquals(expected, read(rope.reader()));
+
+		int lines = 1;
+		for(int i = 0; i < expected.length(); i++) {
+			if (expected.charAt(i) == '\n') {
+				lines++;
+			}
+		}
+		assertEquals(lines, rope.lineCount());
+
+		for(int i = 0; i < 10; i++) {
+			int line = random.nextInt(lines + 2) - 1;
+			int character = random.nextInt(20) - 1;
+			assertEquals(lineStart(expected, line), rope.lineStart(line));
+			assertEquals(offsetOf(expected, line, character), rope.offsetOf(line, character));
+		}
+
+		if (expected.length() > 0) {
+			for(int i = 0; i < 10; i++) {
+				int at = random.nextInt(expected.length());
+				assertEquals(expected.charAt(at), rope.charAt(at));
+			}
+		}
+
+		int start = random.nextInt(expected.length() + 1);
+		int end = start + random.nextInt(expected.length() - start + 1);
+		assertEquals(expected.substring(start, end), rope.subSequence(start, end).toString());
+		char[] chars = new char[end - start];
+		rope.getChars(start, end, chars, 0);
+		assertEquals(expected.substring(start, end), new String(chars));
+	}
+
+	@Test
+	public void testRandomEdits() throws IOException {
+		for(long seed = 0; seed < 20; seed++) {
+			Random random = new Random(seed);
+			String initial = randomText(random, 5000);
+			StringBuilder model = new StringBuilder(initial);
+			Rope rope = Rope.of(initial);
+			check(model.toString(), rope, random);
+			for(int edit = 0; edit < 300; edit++) {
+				int start = random.nextInt(model.length() + 1);
+				int end = start + random.nextInt(Math.min(model.length() - start, 100) + 1);
+				// mostly keystrokes, sometimes pastes large enough to need new chunks
+				String text = randomText(random, random.nextInt(10) == 0? 3000: 3);
+				model.replace(start, end, text);
+				rope = rope.replace(start, end, text);
+				check(model.toString(), rope, random);
+			}
+		}
+	}
+
+	@Test
+	public void testOldVersionsUnchanged() throws IOException {
+		Random random = new Random(42);
+		String initial = randomText(random, 3000);
+		Rope original = Rope.of(initial);
+		Rope rope = original;
+		for(int edit = 0; edit < 100; edit++) {
+			int start = random.nextInt(rope.length() + 1);
+			rope = rope.replace(start, start, randomText(random, 50));
+		}
+		check(initial, original, random);
+	}
+
+	@Test
+	public void testConcat() throws IOException {
+		Random random = new Random(7);
+		for(int i = 0; i < 50; i++) {
+			String left = randomText(random, 4000);
+			String right = randomText(random, 4000);
+			check(left + right, Rope.concat(Rope.of(left), Rope.of(right)), random);
+		}
+	}
+}